@@ -1,9 +1,27 @@
-import java.util.ArrayList;
-import java.util.Scanner;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
 class Employee {
-    int id;
-    String name;
-    double salary;
+    final int id;
+    final String name;
+    final double salary;
     public Employee(int id, String name, double salary) {
         this.id = id;
         this.name = name;
@@ -14,10 +32,731 @@ class Employee {
         return "ID: " + id + ", Name: " + name + ", Salary: " + salary;
     }
 }
+// Map from int keys to non-negative int values with open addressing and linear probing,
+// so lookups never box. The table is a direct buffer of key/value pairs outside the Java
+// heap. Removal shifts later entries back instead of leaving tombstones.
+class IntIndex {
+    private static final int ABSENT = -1;
+    // Volatile and only ever replaced by a complete table, for lookups that do not lock
+    private volatile IntBuffer table;
+    private int capacity;
+    private int size;
+    IntIndex(int expected) {
+        capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        table = emptyTable(capacity);
+    }
+    private static IntBuffer emptyTable(int capacity) {
+        IntBuffer table = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder()).asIntBuffer();
+        for (int i = 0; i < capacity; i++) {
+            table.put(2 * i + 1, ABSENT);
+        }
+        return table;
+    }
+    int size() {
+        return size;
+    }
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (capacity - 1);
+    }
+    private int key(int i) {
+        return table.get(2 * i);
+    }
+    private int value(int i) {
+        return table.get(2 * i + 1);
+    }
+    private void set(int i, int key, int value) {
+        table.put(2 * i, key);
+        table.put(2 * i + 1, value);
+    }
+    // Reads one snapshot of the table, so a lookup racing a resize stays within one
+    // buffer and ends at an empty slot; EmployeeTable discards what such a lookup returns
+    int get(int key) {
+        IntBuffer table = this.table;
+        int mask = table.capacity() / 2 - 1;
+        int h = key * 0x9E3779B9;
+        for (int i = (h ^ (h >>> 16)) & mask; table.get(2 * i + 1) != ABSENT; i = (i + 1) & mask) {
+            if (table.get(2 * i) == key) {
+                return table.get(2 * i + 1);
+            }
+        }
+        return ABSENT;
+    }
+    // Returns the previous value, or -1 if the key was new
+    int put(int key, int value) {
+        int mask = capacity - 1;
+        int i = slot(key);
+        for (; value(i) != ABSENT; i = (i + 1) & mask) {
+            if (key(i) == key) {
+                int previous = value(i);
+                set(i, key, value);
+                return previous;
+            }
+        }
+        set(i, key, value);
+        if (++size * 2 > capacity) {
+            resize(capacity * 2);
+        }
+        return ABSENT;
+    }
+    // Returns the removed value, or -1 if the key was not there
+    int remove(int key) {
+        int mask = capacity - 1;
+        int i = slot(key);
+        while (value(i) != ABSENT && key(i) != key) {
+            i = (i + 1) & mask;
+        }
+        if (value(i) == ABSENT) {
+            return ABSENT;
+        }
+        int removed = value(i);
+        // Pull back any later entry of the run whose home slot is not between the hole and it
+        for (int j = (i + 1) & mask; value(j) != ABSENT; j = (j + 1) & mask) {
+            int home = slot(key(j));
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                set(i, key(j), value(j));
+                i = j;
+            }
+        }
+        table.put(2 * i + 1, ABSENT);
+        size--;
+        return removed;
+    }
+    // Fills the new table before publishing it, so a racing lookup sees one table or the other
+    private void resize(int newCapacity) {
+        IntBuffer old = table;
+        IntBuffer resized = emptyTable(newCapacity);
+        int mask = newCapacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            int value = old.get(2 * i + 1);
+            if (value != ABSENT) {
+                int key = old.get(2 * i);
+                int h = key * 0x9E3779B9;
+                int j = (h ^ (h >>> 16)) & mask;
+                while (resized.get(2 * j + 1) != ABSENT) {
+                    j = (j + 1) & mask;
+                }
+                resized.put(2 * j, key);
+                resized.put(2 * j + 1, value);
+            }
+        }
+        capacity = newCapacity;
+        table = resized;
+    }
+}
+// Secondary indexes over the employees: names, ignoring case, for prefix searches and
+// salaries for range searches. Every entry carries its id, so equal names or salaries stay
+// apart and results come out in name or salary order, ties by id.
+class EmployeeIndexes {
+    private static final class NameKey {
+        final String name;
+        final int id;
+        NameKey(String name, int id) {
+            this.name = name;
+            this.id = id;
+        }
+    }
+    private static final class SalaryKey {
+        final double salary;
+        final int id;
+        SalaryKey(double salary, int id) {
+            this.salary = salary;
+            this.id = id;
+        }
+    }
+    private final TreeSet<NameKey> byName = new TreeSet<>((a, b) -> {
+        int order = a.name.compareTo(b.name);
+        return order != 0 ? order : Integer.compare(a.id, b.id);
+    });
+    private final TreeSet<SalaryKey> bySalary = new TreeSet<>((a, b) -> {
+        int order = Double.compare(a.salary, b.salary);
+        return order != 0 ? order : Integer.compare(a.id, b.id);
+    });
+    private static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+    void add(int id, String name, double salary) {
+        byName.add(new NameKey(fold(name), id));
+        bySalary.add(new SalaryKey(salary, id));
+    }
+    void remove(int id, String name, double salary) {
+        byName.remove(new NameKey(fold(name), id));
+        bySalary.remove(new SalaryKey(salary, id));
+    }
+    int[] withNamePrefix(String prefix) {
+        String folded = fold(prefix);
+        int[] ids = new int[16];
+        int count = 0;
+        for (NameKey key : byName.tailSet(new NameKey(folded, Integer.MIN_VALUE))) {
+            if (!key.name.startsWith(folded)) {
+                break;
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = key.id;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+    // Inclusive at both ends
+    int[] withSalaryBetween(double min, double max) {
+        if (!(min <= max)) {
+            return new int[0];
+        }
+        NavigableSet<SalaryKey> range = bySalary.subSet(new SalaryKey(min, Integer.MIN_VALUE), true,
+                new SalaryKey(max, Integer.MAX_VALUE), true);
+        int[] ids = new int[range.size()];
+        int count = 0;
+        for (SalaryKey key : range) {
+            ids[count++] = key.id;
+        }
+        return ids;
+    }
+}
+// Employees as fixed-width records in a memory-mapped file, in the order they were added.
+// Opening maps the file and indexes the ids, reading nothing else; a record is decoded
+// only when it is looked up or listed. Removing marks the record deleted. Once deleted
+// records outnumber live ones a background thread copies the live ones, in order, to a
+// new file and swaps it in. The name and salary indexes are built on the first search
+// that needs them, so opening still reads only the ids.
+//
+// Safe for any number of threads. Changes take the write lock of a StampedLock and write
+// a whole record under it, so name and salary always change together. Lookups by id read
+// optimistically, without locking, and keep the result only if no write overlapped;
+// otherwise they read again under the read lock. Listing and searches hold the read lock.
+//
+// Header: int magic, int records used, int live records, int unused. Record: int id,
+// byte status, byte unused, short name length, double salary, then the name in UTF-8.
+class EmployeeTable implements Closeable {
+    static final int MAGIC = 0x454D5031;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 128;
+    static final int NAME_BYTES = RECORD_BYTES - 16;
+    private static final int MIN_CAPACITY = 1024;
+    // A mapping is limited to Integer.MAX_VALUE bytes
+    static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_BYTES) / RECORD_BYTES;
+    private static final int MIN_COMPACT = 1024;
+    private static final byte LIVE = 1;
+    private static final byte DELETED = 2;
+    private final Path file;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private int capacity;
+    private int used;
+    private int live;
+    private IntIndex index;
+    private EmployeeIndexes indexes;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "employee-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean compactionQueued;
+    // Deleted records when a compaction last failed; the next waits until there are twice as many
+    private int failedCompactionAt;
+    private final StampedLock lock = new StampedLock();
+    private EmployeeTable(Path file) {
+        this.file = file;
+    }
+    static EmployeeTable open(Path file) throws IOException {
+        EmployeeTable table = new EmployeeTable(file);
+        table.load();
+        return table;
+    }
+    private void load() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size == 0) {
+            map(MIN_CAPACITY);
+            map.putInt(0, MAGIC);
+            used = 0;
+        } else {
+            if (size < HEADER_BYTES) {
+                throw new IOException(file + " is not an employee file");
+            }
+            map((int) Math.max(MIN_CAPACITY, (size - HEADER_BYTES) / RECORD_BYTES));
+            if (map.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not an employee file");
+            }
+            used = map.getInt(4);
+        }
+        index = new IntIndex(used);
+        live = 0;
+        for (int slot = 0; slot < used; slot++) {
+            int base = offset(slot);
+            if (map.get(base + 4) == LIVE && index.put(map.getInt(base), slot) < 0) {
+                live++;
+            }
+        }
+        map.putInt(8, live);
+    }
+    private void map(int records) throws IOException {
+        if (records > MAX_CAPACITY) {
+            throw new IOException(file + " is larger than the " + MAX_CAPACITY + " records an employee file can hold");
+        }
+        capacity = records;
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) records * RECORD_BYTES);
+    }
+    private static int offset(int slot) {
+        return HEADER_BYTES + slot * RECORD_BYTES;
+    }
+    int size() {
+        long stamp = lock.readLock();
+        try {
+            return live;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    boolean isEmpty() {
+        return size() == 0;
+    }
+    Employee find(int id) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                Employee employee = lookup(id);
+                if (lock.validate(stamp)) {
+                    return employee;
+                }
+            } catch (RuntimeException e) {
+                // Read a record or index in the middle of a write; retry under the lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return lookup(id);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    private Employee lookup(int id) {
+        int slot = index.get(id);
+        return slot < 0 ? null : read(slot);
+    }
+    // False if the id is already taken
+    boolean add(Employee employee) throws IOException {
+        byte[] name = encodeName(employee.name);
+        long stamp = lock.writeLock();
+        try {
+            if (index.get(employee.id) >= 0) {
+                return false;
+            }
+            if (used == capacity) {
+                if (capacity == MAX_CAPACITY) {
+                    throw new IOException("The employee file is full; it holds at most " + MAX_CAPACITY + " records.");
+                }
+                map((int) Math.min(MAX_CAPACITY, capacity * 2L));
+            }
+            write(used, employee.id, name, employee.salary);
+            index.put(employee.id, used);
+            if (indexes != null) {
+                indexes.add(employee.id, employee.name, employee.salary);
+            }
+            map.putInt(4, ++used);
+            map.putInt(8, ++live);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    boolean update(int id, String name, double salary) {
+        byte[] encoded = encodeName(name);
+        long stamp = lock.writeLock();
+        try {
+            int slot = index.get(id);
+            if (slot < 0) {
+                return false;
+            }
+            if (indexes != null) {
+                Employee old = read(slot);
+                indexes.remove(id, old.name, old.salary);
+                indexes.add(id, name, salary);
+            }
+            write(slot, id, encoded, salary);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    boolean remove(int id) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = index.remove(id);
+            if (slot < 0) {
+                return false;
+            }
+            if (indexes != null) {
+                Employee old = read(slot);
+                indexes.remove(id, old.name, old.salary);
+            }
+            map.put(offset(slot) + 4, DELETED);
+            map.putInt(8, --live);
+            if (used - live >= Math.max(MIN_COMPACT, 2 * failedCompactionAt) && used - live > live && !compactionQueued) {
+                compactionQueued = true;
+                compactor.execute(this::compactQuietly);
+            }
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    void forEach(Consumer<Employee> action) {
+        long stamp = lock.readLock();
+        try {
+            scan(action);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    private void scan(Consumer<Employee> action) {
+        for (int slot = 0; slot < used; slot++) {
+            if (map.get(offset(slot) + 4) == LIVE) {
+                action.accept(read(slot));
+            }
+        }
+    }
+    // Employees whose name starts with the prefix, ignoring case, in name order
+    List<Employee> findByNamePrefix(String prefix) {
+        long stamp = indexedReadLock();
+        try {
+            return employees(indexes.withNamePrefix(prefix));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    // Employees earning from min to max inclusive, lowest first
+    List<Employee> findBySalary(double min, double max) {
+        long stamp = indexedReadLock();
+        try {
+            return employees(indexes.withSalaryBetween(min, max));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    // A read lock with the name and salary indexes in place, building them first if needed
+    private long indexedReadLock() {
+        long stamp = lock.readLock();
+        if (indexes != null) {
+            return stamp;
+        }
+        long write = lock.tryConvertToWriteLock(stamp);
+        if (write == 0) {
+            lock.unlockRead(stamp);
+            write = lock.writeLock();
+        }
+        if (indexes == null) {
+            EmployeeIndexes built = new EmployeeIndexes();
+            scan(employee -> built.add(employee.id, employee.name, employee.salary));
+            indexes = built;
+        }
+        return lock.tryConvertToReadLock(write);
+    }
+    private List<Employee> employees(int[] ids) {
+        List<Employee> employees = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            employees.add(read(index.get(id)));
+        }
+        return employees;
+    }
+    private static byte[] encodeName(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > NAME_BYTES) {
+            throw new IllegalArgumentException("Names can be at most " + NAME_BYTES + " bytes long.");
+        }
+        return bytes;
+    }
+    private Employee read(int slot) {
+        int base = offset(slot);
+        byte[] name = new byte[map.getShort(base + 6)];
+        map.get(base + 16, name);
+        return new Employee(map.getInt(base), new String(name, StandardCharsets.UTF_8), map.getDouble(base + 8));
+    }
+    // The status byte goes last, so a record is never marked live before it is complete
+    private void write(int slot, int id, byte[] name, double salary) {
+        int base = offset(slot);
+        map.putInt(base, id);
+        map.putShort(base + 6, (short) name.length);
+        map.putDouble(base + 8, salary);
+        map.put(base + 16, name);
+        map.put(base + 4, LIVE);
+    }
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException e) {
+            System.err.println("Compacting " + file + " failed: " + e.getMessage());
+        }
+    }
+    // Writes the live records to a new file, then renames it over the old one so a crash
+    // leaves one complete file or the other. If the rename fails (on Windows it does while
+    // the old file is still mapped) the old file is reopened and the table carries on.
+    void compact() throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            compactLocked();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    private void compactLocked() throws IOException {
+        compactionQueued = false;
+        if (channel == null || used == live) {
+            return;
+        }
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        int newCapacity = Math.max(MIN_CAPACITY, live);
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_BYTES + (long) newCapacity * RECORD_BYTES);
+            int to = 0;
+            for (int from = 0; from < used; from++) {
+                if (map.get(offset(from) + 4) == LIVE) {
+                    target.put(offset(to++), map, offset(from), RECORD_BYTES);
+                }
+            }
+            target.putInt(0, MAGIC);
+            target.putInt(4, to);
+            target.putInt(8, to);
+            target.force();
+        }
+        map.force();
+        channel.close();
+        try {
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            failedCompactionAt = used - live;
+            try {
+                Files.deleteIfExists(compacted);
+                load();
+            } catch (IOException reopen) {
+                channel = null;
+                e.addSuppressed(reopen);
+            }
+            throw e;
+        }
+        failedCompactionAt = 0;
+        load();
+    }
+    // Waits for a running compaction and writes everything out
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long stamp = lock.writeLock();
+        try {
+            if (channel != null) {
+                map.force();
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
+// Reads batch commands straight from a byte buffer: words, numbers and the rest of a line,
+// without Scanner's regular expressions or a String per token
+class CommandReader {
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private final InputStream in;
+    private final byte[] buffer = new byte[1 << 16];
+    private int position;
+    private int limit;
+    private byte[] token = new byte[64];
+    private int tokenLength;
+    private int line;
+    CommandReader(InputStream in) {
+        this.in = in;
+    }
+    int line() {
+        return line;
+    }
+    private int peek() throws IOException {
+        if (position == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position];
+    }
+    private void skipBlanks() throws IOException {
+        int c;
+        while ((c = peek()) == ' ' || c == '\t' || c == '\r') {
+            position++;
+        }
+    }
+    // Moves to the next line that is not blank or a # comment; false at the end of input
+    boolean nextCommand() throws IOException {
+        while (true) {
+            skipBlanks();
+            int c = peek();
+            if (c == -1) {
+                return false;
+            }
+            line++;
+            if (c != '\n' && c != '#') {
+                return true;
+            }
+            skipLine();
+        }
+    }
+    void skipLine() throws IOException {
+        int c;
+        while ((c = peek()) != -1) {
+            position++;
+            if (c == '\n') {
+                return;
+            }
+        }
+    }
+    private void readToken() throws IOException {
+        skipBlanks();
+        tokenLength = 0;
+        int c;
+        while ((c = peek()) != -1 && c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+            if (tokenLength == token.length) {
+                token = Arrays.copyOf(token, token.length * 2);
+            }
+            token[tokenLength++] = (byte) c;
+            position++;
+        }
+        if (tokenLength == 0) {
+            throw new IllegalArgumentException("missing value");
+        }
+    }
+    // True if the next word is the given ASCII word; the word is consumed either way
+    boolean word(String expected) throws IOException {
+        readToken();
+        return matches(expected);
+    }
+    boolean matches(String expected) {
+        if (tokenLength != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < tokenLength; i++) {
+            if (token[i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    String lastWord() {
+        return new String(token, 0, tokenLength, StandardCharsets.UTF_8);
+    }
+    int readInt() throws IOException {
+        readToken();
+        int i = token[0] == '-' || token[0] == '+' ? 1 : 0;
+        if (i == tokenLength) {
+            throw new IllegalArgumentException("not a whole number: " + lastWord());
+        }
+        long value = 0;
+        for (; i < tokenLength; i++) {
+            int digit = token[i] - '0';
+            if (digit < 0 || digit > 9 || (value = value * 10 + digit) > 1L + Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("not a whole number: " + lastWord());
+            }
+        }
+        value = token[0] == '-' ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("not a whole number: " + lastWord());
+        }
+        return (int) value;
+    }
+    // Plain decimals are parsed here; anything else, such as exponents, goes to Double
+    double readDouble() throws IOException {
+        readToken();
+        int i = token[0] == '-' || token[0] == '+' ? 1 : 0;
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; i < tokenLength; i++) {
+            int c = token[i];
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (c >= '0' && c <= '9' && digits < 18) {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else {
+                try {
+                    return Double.parseDouble(lastWord());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("not a number: " + lastWord());
+                }
+            }
+        }
+        if (digits == 0) {
+            throw new IllegalArgumentException("not a number: " + lastWord());
+        }
+        // Exact when the mantissa fits in 53 bits, since both operands are then exact
+        double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+        return token[0] == '-' ? -value : value;
+    }
+    // The rest of the line with surrounding blanks removed
+    String rest() throws IOException {
+        skipBlanks();
+        tokenLength = 0;
+        int c;
+        while ((c = peek()) != -1 && c != '\n') {
+            if (tokenLength == token.length) {
+                token = Arrays.copyOf(token, token.length * 2);
+            }
+            token[tokenLength++] = (byte) c;
+            position++;
+        }
+        while (tokenLength > 0 && (token[tokenLength - 1] == ' ' || token[tokenLength - 1] == '\t' ||
+                token[tokenLength - 1] == '\r')) {
+            tokenLength--;
+        }
+        if (tokenLength == 0) {
+            throw new IllegalArgumentException("missing name");
+        }
+        return lastWord();
+    }
+}
 public class Exp4 {
-    private static ArrayList<Employee> employees = new ArrayList<>();
+    static final String DATA_FILE = "employees.dat";
+    private static EmployeeTable employees;
     private static Scanner scanner = new Scanner(System.in);
     public static void main(String[] args) {
+        if (args.length > 0 && "--stress".equals(args[0])) {
+            try {
+                runStress(args);
+            } catch (IOException | InterruptedException e) {
+                System.err.println("Stress run failed: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        try {
+            employees = EmployeeTable.open(Paths.get(DATA_FILE));
+        } catch (IOException e) {
+            System.out.println("Could not open " + DATA_FILE + ": " + e.getMessage());
+            System.exit(1);
+        }
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            try (InputStream in = args.length < 2 || "-".equals(args[1]) ? System.in : new FileInputStream(args[1])) {
+                runBatch(in, new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
+            } catch (IOException e) {
+                System.err.println("Batch failed: " + e.getMessage());
+                close();
+                System.exit(1);
+            }
+            close();
+            return;
+        }
         while (true) {
             System.out.println("\nEmployee Management System");
             System.out.println("1. Add Employee");
@@ -47,6 +786,7 @@ public class Exp4 {
                     break;
                 case 6:
                     System.out.println("Exiting...");
+                    close();
                     System.exit(0);
                 default:
                     System.out.println("Invalid choice, please try again.");
@@ -62,8 +802,15 @@ public class Exp4 {
         System.out.print("Enter Employee Salary: ");
         double salary = scanner.nextDouble();
         Employee employee = new Employee(id, name, salary);
-        employees.add(employee);
-        System.out.println("Employee added successfully.");
+        try {
+            if (employees.add(employee)) {
+                System.out.println("Employee added successfully.");
+            } else {
+                System.out.println("An employee with ID " + id + " already exists.");
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println("Employee not added: " + e.getMessage());
+        }
     }
     private static void updateEmployee() {
         System.out.print("Enter Employee ID to update: ");
@@ -72,10 +819,15 @@ public class Exp4 {
         Employee employee = findEmployeeById(id);
         if (employee != null) {
             System.out.print("Enter new name: ");
-            employee.name = scanner.nextLine();
+            String name = scanner.nextLine();
             System.out.print("Enter new salary: ");
-            employee.salary = scanner.nextDouble();
-            System.out.println("Employee updated successfully.");
+            double salary = scanner.nextDouble();
+            try {
+                employees.update(id, name, salary);
+                System.out.println("Employee updated successfully.");
+            } catch (IllegalArgumentException e) {
+                System.out.println("Employee not updated: " + e.getMessage());
+            }
         } else {
             System.out.println("Employee not found.");
         }
@@ -83,15 +835,29 @@ public class Exp4 {
     private static void removeEmployee() {
         System.out.print("Enter Employee ID to remove: ");
         int id = scanner.nextInt();
-        Employee employee = findEmployeeById(id);
-        if (employee != null) {
-            employees.remove(employee);
+        if (employees.remove(id)) {
             System.out.println("Employee removed successfully.");
         } else {
             System.out.println("Employee not found.");
         }
     }
     private static void searchEmployee() {
+        System.out.print("Search by 1. ID, 2. Name prefix or 3. Salary range: ");
+        int mode = scanner.nextInt();
+        scanner.nextLine();
+        if (mode == 2) {
+            System.out.print("Enter the start of the name: ");
+            printMatches(employees.findByNamePrefix(scanner.nextLine().trim()));
+            return;
+        }
+        if (mode == 3) {
+            System.out.print("Enter the lowest salary: ");
+            double min = scanner.nextDouble();
+            System.out.print("Enter the highest salary: ");
+            double max = scanner.nextDouble();
+            printMatches(employees.findBySalary(min, max));
+            return;
+        }
         System.out.print("Enter Employee ID to search: ");
         int id = scanner.nextInt();
         Employee employee = findEmployeeById(id);
@@ -101,22 +867,180 @@ public class Exp4 {
             System.out.println("Employee not found.");
         }
     }
+    private static void printMatches(List<Employee> matches) {
+        if (matches.isEmpty()) {
+            System.out.println("No employees found.");
+        } else {
+            System.out.println(matches.size() + (matches.size() == 1 ? " employee found:" : " employees found:"));
+            matches.forEach(System.out::println);
+        }
+    }
     private static Employee findEmployeeById(int id) {
-        for (Employee employee : employees) {
-            if (employee.id == id) {
-                return employee;
+        return employees.find(id);
+    }
+    // Runs one command per line until the input ends:
+    //   add ID SALARY NAME | update ID SALARY NAME | remove ID | search ID |
+    //   prefix NAME | salary MIN MAX
+    // The name is the rest of the line. Searches print the employees found; failures
+    // print the line number and reason; other commands print nothing. A summary goes to
+    // stderr.
+    static void runBatch(InputStream in, Writer out) throws IOException {
+        CommandReader reader = new CommandReader(in);
+        long start = System.nanoTime();
+        long commands = 0, added = 0, updated = 0, removed = 0, found = 0, failed = 0;
+        while (reader.nextCommand()) {
+            commands++;
+            String failure = null;
+            try {
+                if (reader.word("add") || reader.matches("update")) {
+                    boolean add = reader.matches("add");
+                    int id = reader.readInt();
+                    double salary = reader.readDouble();
+                    String name = reader.rest();
+                    if (add ? employees.add(new Employee(id, name, salary)) : employees.update(id, name, salary)) {
+                        if (add) {
+                            added++;
+                        } else {
+                            updated++;
+                        }
+                    } else {
+                        failure = add ? "ID " + id + " already exists" : "ID " + id + " not found";
+                    }
+                } else if (reader.matches("remove")) {
+                    int id = reader.readInt();
+                    if (employees.remove(id)) {
+                        removed++;
+                    } else {
+                        failure = "ID " + id + " not found";
+                    }
+                } else if (reader.matches("search")) {
+                    int id = reader.readInt();
+                    Employee employee = employees.find(id);
+                    if (employee != null) {
+                        found++;
+                        out.write(employee.toString());
+                        out.write('\n');
+                    } else {
+                        failure = "ID " + id + " not found";
+                    }
+                } else if (reader.matches("prefix") || reader.matches("salary")) {
+                    List<Employee> matches = reader.matches("prefix")
+                            ? employees.findByNamePrefix(reader.rest())
+                            : employees.findBySalary(reader.readDouble(), reader.readDouble());
+                    for (Employee employee : matches) {
+                        out.write(employee.toString());
+                        out.write('\n');
+                    }
+                    found += matches.size();
+                } else {
+                    failure = "unknown command " + reader.lastWord();
+                }
+            } catch (IllegalArgumentException e) {
+                failure = e.getMessage();
+            }
+            if (failure != null) {
+                failed++;
+                out.write("line " + reader.line() + ": " + failure + "\n");
+            }
+            reader.skipLine();
+        }
+        out.flush();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d commands in %.2fs (%.0f/s): %d added, %d updated, %d removed, %d found, %d failed%n",
+                commands, seconds, commands / Math.max(seconds, 1e-9), added, updated, removed, found, failed);
+    }
+    // --stress [SECONDS] [EMPLOYEES] [MAX_THREADS]: loads a scratch table and runs a mix of
+    // lookups, updates, searches and remove/re-add pairs at 1, 2, 4... threads up to the
+    // core count, printing ops/s for each. Every update writes a name ending in its salary,
+    // so a lookup that sees the name of one update with the salary of another counts as torn.
+    static void runStress(String[] args) throws IOException, InterruptedException {
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int count = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        Path file = Files.createTempFile("employees-stress", ".dat");
+        Files.delete(file);
+        EmployeeTable table = EmployeeTable.open(file);
+        try {
+            for (int id = 0; id < count; id++) {
+                table.add(new Employee(id, "Employee " + id + " v0", 0));
             }
+            List<Integer> threadCounts = new ArrayList<>();
+            for (int threads = 1; threads < maxThreads; threads *= 2) {
+                threadCounts.add(threads);
+            }
+            threadCounts.add(maxThreads);
+            // Unreported, so the first step is not measuring the JIT
+            stressStep(table, count, maxThreads, seconds);
+            System.out.printf("%d employees, %d s per step%n%8s %14s %8s %6s%n", count, seconds, "threads", "ops/s",
+                    "speedup", "torn");
+            double single = 0;
+            for (int threads : threadCounts) {
+                long[] result = stressStep(table, count, threads, seconds);
+                double rate = result[0] / (double) seconds;
+                single = single == 0 ? rate : single;
+                System.out.printf("%8d %14.0f %7.2fx %6d%n", threads, rate, rate / single, result[1]);
+            }
+        } finally {
+            table.close();
+            Files.deleteIfExists(file);
+        }
+    }
+    // Returns the operations done and the torn reads seen
+    private static long[] stressStep(EmployeeTable table, int count, int threads, int seconds) throws InterruptedException {
+        LongAdder operations = new LongAdder();
+        LongAdder torn = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> stressLoop(table, count, deadline, operations, torn), "stress-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return new long[] {operations.sum(), torn.sum()};
+    }
+    private static void stressLoop(EmployeeTable table, int count, long deadline, LongAdder operations, LongAdder torn) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long done = 0;
+        while ((done & 255) != 0 || System.nanoTime() < deadline) {
+            int id = random.nextInt(count);
+            int pick = random.nextInt(100);
+            try {
+                if (pick < 90) {
+                    Employee employee = table.find(id);
+                    if (employee != null && !employee.name.endsWith(" v" + (long) employee.salary)) {
+                        torn.increment();
+                    }
+                } else if (pick < 98) {
+                    long version = random.nextLong(1_000_000);
+                    table.update(id, "Employee " + id + " v" + version, version);
+                } else if (pick < 99) {
+                    double low = random.nextInt(1_000_000);
+                    table.findBySalary(low, low + 100);
+                } else if (table.remove(id)) {
+                    table.add(new Employee(id, "Employee " + id + " v0", 0));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            done++;
+        }
+        operations.add(done);
+    }
+    private static void close() {
+        try {
+            employees.close();
+        } catch (IOException e) {
+            System.out.println("Could not save " + DATA_FILE + ": " + e.getMessage());
         }
-        return null;
     }
     private static void displayAllEmployees() {
         if (employees.isEmpty()) {
             System.out.println("No employees to display.");
         } else {
             System.out.println("Employee List:");
-            for (Employee employee : employees) {
-                System.out.println(employee);
-            }
+            employees.forEach(System.out::println);
         }
     }
 }
@@ -0,0 +1,140 @@
+import javax.swing.SwingUtilities;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// Runs ExpenseStore calls on background threads and hands results back to the Swing
+// event dispatch thread. Queries run on a pool sized to the read connections; writes go
+// through a single-thread queue, so they are applied one at a time in submission order
+// and a long query never holds up a save.
+class AsyncExpenseStore {
+    interface SqlTask<T> {
+        T run(ExpenseStore store) throws SQLException;
+    }
+
+    private final ExpenseStore store;
+    private final ExecutorService readExecutor;
+    private final ExecutorService writeExecutor;
+
+    AsyncExpenseStore(ExpenseStore store) {
+        this.store = store;
+        this.readExecutor = Executors.newFixedThreadPool(ExpenseDatabase.DEFAULT_READERS, daemon("expense-db-read"));
+        this.writeExecutor = Executors.newSingleThreadExecutor(daemon("expense-db-write"));
+    }
+
+    static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Cancelling the returned future interrupts the task if it is already running
+    <T> CompletableFuture<T> read(SqlTask<T> task) {
+        return submit(readExecutor, task);
+    }
+
+    <T> CompletableFuture<T> write(SqlTask<T> task) {
+        return submit(writeExecutor, task);
+    }
+
+    private <T> CompletableFuture<T> submit(ExecutorService executor, SqlTask<T> task) {
+        return submit(executor, () -> task.run(store));
+    }
+
+    // Runs the task on the executor; cancelling the returned future interrupts it
+    static <T> CompletableFuture<T> submit(ExecutorService executor, Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> running = executor.submit(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                result.complete(task.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                running.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    CompletableFuture<Long> saveExpense(NewExpense expense) {
+        return write(s -> s.saveExpense(expense));
+    }
+
+    // Bulk split for imports: all expenses are written in a single transaction
+    CompletableFuture<long[]> saveExpenses(List<NewExpense> expenses) {
+        return write(s -> s.saveExpenses(expenses));
+    }
+
+    // Applies a batch drained from the write-behind journal
+    CompletableFuture<long[]> saveJournaled(List<NewExpense> expenses, long lastSequence) {
+        return write(s -> s.saveJournaled(expenses, lastSequence));
+    }
+
+    CompletableFuture<Long> journalSequence() {
+        return write(ExpenseStore::journalSequence);
+    }
+
+    CompletableFuture<Map<String, Long>> loadBalances() {
+        return read(ExpenseStore::loadBalances);
+    }
+
+    CompletableFuture<ExpenseRecord> findExpense(long expenseId) {
+        return read(s -> s.findExpense(expenseId));
+    }
+
+    // Completes with the number of rows removed
+    CompletableFuture<Integer> deleteExpenses(long[] expenseIds) {
+        return write(s -> s.deleteExpenses(expenseIds));
+    }
+
+    CompletableFuture<Void> deleteExpense(long expenseId) {
+        return write(s -> {
+            s.deleteExpense(expenseId);
+            return null;
+        });
+    }
+
+    // Completes with the number of rows the edit wrote
+    CompletableFuture<Integer> updateExpense(long expenseId, NewExpense expense) {
+        return write(s -> s.updateExpense(expenseId, expense));
+    }
+
+    // Waits for queued writes to finish before closing the connections
+    void close() throws SQLException {
+        readExecutor.shutdownNow();
+        writeExecutor.shutdown();
+        try {
+            readExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            writeExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        store.close();
+    }
+
+    // Delivers the outcome on the EDT; a cancelled future delivers nothing
+    static <T> void onEdt(CompletableFuture<T> future, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+        future.whenComplete((value, error) -> {
+            if (future.isCancelled()) {
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (error == null) {
+                    onSuccess.accept(value);
+                } else {
+                    onError.accept(error instanceof CompletionException ? error.getCause() : error);
+                }
+            });
+        });
+    }
+}
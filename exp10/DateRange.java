@@ -0,0 +1,49 @@
+import java.time.LocalDate;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+
+// An inclusive range of days typed into the date search: a day (2024-05-01), a month
+// (2024-05), a year (2024), or two of those joined by ".." (2024-01..2024-03)
+class DateRange {
+    final LocalDate from;
+    final LocalDate to;
+
+    DateRange(LocalDate from, LocalDate to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    // Returns null when the text is not a recognised date or range
+    static DateRange parse(String text) {
+        try {
+            int separator = text.indexOf("..");
+            if (separator >= 0) {
+                DateRange start = parsePeriod(text.substring(0, separator).trim());
+                DateRange end = parsePeriod(text.substring(separator + 2).trim());
+                if (end.to.isBefore(start.from)) {
+                    return null;
+                }
+                return new DateRange(start.from, end.to);
+            }
+            return parsePeriod(text.trim());
+
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static DateRange parsePeriod(String text) {
+        switch (text.length()) {
+            case 4:
+                Year year = Year.parse(text);
+                return new DateRange(year.atDay(1), year.atMonth(12).atEndOfMonth());
+            case 7:
+                YearMonth month = YearMonth.parse(text);
+                return new DateRange(month.atDay(1), month.atEndOfMonth());
+            default:
+                LocalDate day = LocalDate.parse(text);
+                return new DateRange(day, day);
+        }
+    }
+}
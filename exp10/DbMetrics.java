@@ -0,0 +1,175 @@
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+// Latency histogram, row count and error count for every kind of database operation.
+// Recording is lock-free so it can sit on every query. Exposed over JMX and summarised
+// to the log at a fixed interval; any single call slower than SLOW_MILLIS, and slower
+// than SLOW_ROW_MICROS for each row it touched, is logged as it happens. Bulk inserts,
+// imports and seeding therefore only warn when they are slow per row, not for being big.
+class DbMetrics implements DbMetricsMXBean {
+    static final String OBJECT_NAME = "ExpenseSplitter:type=DbMetrics";
+    static final long SLOW_MILLIS = 250;
+    static final long SLOW_ROW_MICROS = 100;
+    static final long SUMMARY_SECONDS = 60;
+
+    private static final Logger LOG = Logger.getLogger("ExpenseSplitter.db");
+    // Bucket i holds latencies below 2^i microseconds
+    private static final int BUCKETS = 40;
+
+    private static class OperationStats {
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        // Count at the last log summary, so idle operations are left out of the next one
+        long reportedCount;
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            long micros = nanos / 1000;
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+        }
+
+        // Upper bound of the bucket holding the given fraction of samples, in microseconds
+        long percentile(double fraction, long total) {
+            long target = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= target && seen > 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+    }
+
+    private final ConcurrentHashMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private ScheduledExecutorService reporter;
+    private boolean registered;
+
+    void record(String operation, long nanos, long rows) {
+        OperationStats stats = stats(operation);
+        stats.record(nanos);
+        stats.rows.add(rows);
+        long limit = Math.max(TimeUnit.MILLISECONDS.toNanos(SLOW_MILLIS), TimeUnit.MICROSECONDS.toNanos(SLOW_ROW_MICROS) * rows);
+        if (nanos > limit) {
+            LOG.warning(String.format("Slow %s: %d ms, %d rows", operation, nanos / 1_000_000, rows));
+        }
+    }
+
+    void recordError(String operation, long nanos, Exception error) {
+        OperationStats stats = stats(operation);
+        stats.record(nanos);
+        stats.errors.increment();
+        LOG.warning(operation + " failed: " + error);
+    }
+
+    private OperationStats stats(String operation) {
+        return operations.computeIfAbsent(operation, k -> new OperationStats());
+    }
+
+    @Override
+    public List<OperationSnapshot> getOperations() {
+        List<OperationSnapshot> snapshots = new ArrayList<>();
+        for (Map.Entry<String, OperationStats> entry : new TreeMap<>(operations).entrySet()) {
+            snapshots.add(snapshot(entry.getKey(), entry.getValue()));
+        }
+        return snapshots;
+    }
+
+    private static OperationSnapshot snapshot(String name, OperationStats stats) {
+        long count = stats.count.sum();
+        return new OperationSnapshot(name, count, stats.errors.sum(), stats.rows.sum(),
+                count == 0 ? 0 : stats.totalNanos.sum() / count / 1000,
+                stats.percentile(0.50, count), stats.percentile(0.99, count), stats.maxNanos.get() / 1000);
+    }
+
+    @Override
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (OperationSnapshot op : getOperations()) {
+            summary.append(format(op)).append('\n');
+        }
+        return summary.toString();
+    }
+
+    private static String format(OperationSnapshot op) {
+        return String.format("%-18s count=%d errors=%d rows=%d rows/op=%.1f mean=%dus p50<%dus p99<%dus max=%dus",
+                op.getName(), op.getCount(), op.getErrors(), op.getRows(),
+                op.getCount() == 0 ? 0.0 : (double) op.getRows() / op.getCount(),
+                op.getMeanMicros(), op.getP50Micros(), op.getP99Micros(), op.getMaxMicros());
+    }
+
+    @Override
+    public void reset() {
+        operations.clear();
+    }
+
+    // Registers with the platform MBean server, replacing metrics of an earlier store
+    synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            registered = true;
+        } catch (Exception e) {
+            LOG.warning("Could not register metrics MBean: " + e);
+        }
+    }
+
+    // Logs the operations that ran since the last summary, every SUMMARY_SECONDS
+    synchronized void startReporting() {
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(AsyncExpenseStore.daemon("expense-db-metrics"));
+        reporter.scheduleAtFixedRate(this::logSummary, SUMMARY_SECONDS, SUMMARY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void logSummary() {
+        StringBuilder summary = new StringBuilder("Database operations (cumulative):");
+        boolean active = false;
+        for (Map.Entry<String, OperationStats> entry : new TreeMap<>(operations).entrySet()) {
+            OperationStats stats = entry.getValue();
+            long count = stats.count.sum();
+            if (count != stats.reportedCount) {
+                stats.reportedCount = count;
+                summary.append("\n  ").append(format(snapshot(entry.getKey(), stats)));
+                active = true;
+            }
+        }
+        if (active) {
+            LOG.info(summary.toString());
+        }
+    }
+
+    synchronized void stop() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        if (registered) {
+            registered = false;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+            } catch (Exception e) {
+                LOG.warning("Could not unregister metrics MBean: " + e);
+            }
+        }
+    }
+}
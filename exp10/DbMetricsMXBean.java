@@ -0,0 +1,70 @@
+import java.beans.ConstructorProperties;
+import java.util.List;
+
+// JMX view of the database metrics, registered as ExpenseSplitter:type=DbMetrics.
+// Latencies are in microseconds; percentiles are read from power-of-two buckets and are
+// accurate to within a factor of two.
+public interface DbMetricsMXBean {
+    List<OperationSnapshot> getOperations();
+
+    // One line per operation, as written to the periodic log summary
+    String getSummary();
+
+    void reset();
+
+    class OperationSnapshot {
+        private final String name;
+        private final long count;
+        private final long errors;
+        private final long rows;
+        private final long meanMicros;
+        private final long p50Micros;
+        private final long p99Micros;
+        private final long maxMicros;
+
+        @ConstructorProperties({"name", "count", "errors", "rows", "meanMicros", "p50Micros", "p99Micros", "maxMicros"})
+        public OperationSnapshot(String name, long count, long errors, long rows,
+                                 long meanMicros, long p50Micros, long p99Micros, long maxMicros) {
+            this.name = name;
+            this.count = count;
+            this.errors = errors;
+            this.rows = rows;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getMeanMicros() {
+            return meanMicros;
+        }
+
+        public long getP50Micros() {
+            return p50Micros;
+        }
+
+        public long getP99Micros() {
+            return p99Micros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+    }
+}
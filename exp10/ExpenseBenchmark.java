@@ -0,0 +1,143 @@
+import java.io.File;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Headless benchmark of the persistence paths behind the GUI actions: saving an expense,
+// View Records (count plus first page), paging deeper, the name/description/date
+// filters, and editing an expense. Each run seeds a fresh temporary SQLite file from
+// LedgerGenerator, warms every operation up, then times it call by call and reports
+// throughput and latency percentiles.
+//
+// Usage: ExpenseBenchmark [--expenses N] [--participants N] [--names N]
+//                         [--distribution zipf|uniform] [--iterations N] [--seed N]
+class ExpenseBenchmark {
+    interface Operation {
+        void run(int iteration) throws Exception;
+    }
+
+    private final int warmup;
+    private final int iterations;
+
+    ExpenseBenchmark(int warmup, int iterations) {
+        this.warmup = warmup;
+        this.iterations = iterations;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int expenses = 100_000;
+        int participants = 4;
+        int names = 2_000;
+        boolean zipf = true;
+        int iterations = 2_000;
+        long seed = 42;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--expenses": expenses = Integer.parseInt(args[i + 1]); break;
+                case "--participants": participants = Integer.parseInt(args[i + 1]); break;
+                case "--names": names = Integer.parseInt(args[i + 1]); break;
+                case "--distribution": zipf = !"uniform".equals(args[i + 1]); break;
+                case "--iterations": iterations = Integer.parseInt(args[i + 1]); break;
+                case "--seed": seed = Long.parseLong(args[i + 1]); break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        File file = File.createTempFile("expense-bench", ".db");
+        ExpenseStore store = ExpenseStore.open("jdbc:sqlite:" + file.getPath());
+        try {
+            LedgerGenerator generator = new LedgerGenerator(seed, participants, names, zipf, 5 * 365);
+            long start = System.nanoTime();
+            generator.seed(store, expenses, LedgerCsv.DEFAULT_BATCH_SIZE);
+            System.out.printf("Seeded %d expenses x %d participants (%d %s names) in %.1fs%n%n",
+                    expenses, participants, names, zipf ? "zipf" : "uniform", (System.nanoTime() - start) / 1e9);
+
+            new ExpenseBenchmark(Math.max(1, iterations / 10), iterations).runAll(store, generator, seed);
+        } finally {
+            store.close();
+            for (String suffix : new String[] {"", "-wal", "-shm"}) {
+                new File(file.getPath() + suffix).delete();
+            }
+        }
+    }
+
+    void runAll(ExpenseStore store, LedgerGenerator generator, long seed) throws Exception {
+        Random random = new Random(seed);
+        int pageSize = ExpenseTableModel.PAGE_SIZE;
+        // The file is fresh, so the seeded expenses have ids 1..seeded
+        int seeded = store.countRecords(RecordFilter.ALL);
+
+        System.out.printf("%-28s %10s %10s %10s %10s %10s%n", "operation", "ops/s", "p50 us", "p90 us", "p99 us", "max us");
+
+        measure("saveExpense", i -> store.saveExpense(generator.nextExpense()));
+
+        List<NewExpense> batch = generator.nextExpenses(100);
+        measure("saveExpenses (batch 100)", i -> store.saveExpenses(batch));
+
+        measure("loadAllRecords (first page)", i -> {
+            store.countRecords(RecordFilter.ALL);
+            store.loadPage(RecordFilter.ALL, null, pageSize);
+        });
+
+        measure("loadPage (page 25)", i -> {
+            ExpenseStore.PageKey key = store.findPageKeys(RecordFilter.ALL, null, pageSize, 25).get(24);
+            store.loadPage(RecordFilter.ALL, key, pageSize);
+        });
+
+        measure("filterRecords (name)", i -> {
+            RecordFilter filter = RecordFilter.nameContains(generator.nextName());
+            store.countRecords(filter);
+            store.loadPage(filter, null, pageSize);
+        });
+
+        measure("filterRecords (description)", i -> {
+            RecordFilter filter = RecordFilter.descriptionContains(String.valueOf(100 + random.nextInt(900)));
+            store.countRecords(filter);
+            store.loadPage(filter, null, pageSize);
+        });
+
+        LocalDate first = LocalDate.of(2020, 1, 1);
+        measure("filterRecords (month)", i -> {
+            LocalDate month = first.plusMonths(random.nextInt(60));
+            RecordFilter filter = RecordFilter.dateBetween(new DateRange(month, month.plusMonths(1).minusDays(1)));
+            store.countRecords(filter);
+            store.loadPage(filter, null, pageSize);
+        });
+
+        measure("updateExpense", i -> {
+            long id = 1 + random.nextInt(seeded);
+            NewExpense changes = generator.nextExpense();
+            store.updateExpense(id, changes);
+        });
+
+        measure("loadBalances + settle", i -> Settlement.settle(store.loadBalances()));
+    }
+
+    void measure(String name, Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            operation.run(i);
+        }
+
+        long[] nanos = new long[iterations];
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long before = System.nanoTime();
+            operation.run(i);
+            nanos[i] = System.nanoTime() - before;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(nanos);
+        System.out.printf("%-28s %10.0f %10.1f %10.1f %10.1f %10.1f%n", name,
+                iterations / (elapsed / 1e9),
+                percentile(nanos, 0.50) / 1e3, percentile(nanos, 0.90) / 1e3,
+                percentile(nanos, 0.99) / 1e3, nanos[nanos.length - 1] / 1e3);
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))];
+    }
+}
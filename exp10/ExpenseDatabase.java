@@ -0,0 +1,89 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Connections to one SQLite file in WAL mode: a single writer connection plus a small
+// pool of read-only connections. In WAL mode readers see the last committed snapshot
+// and never wait on the writer, so long report reads and inserts do not block each other.
+class ExpenseDatabase {
+    static final int DEFAULT_READERS = 4;
+
+    interface SqlFunction<T> {
+        T apply(Connection connection) throws SQLException;
+    }
+
+    private final Connection writer;
+    private final BlockingQueue<Connection> readers;
+    private final List<Connection> allReaders = new ArrayList<>();
+
+    private ExpenseDatabase(Connection writer, int readerCount) {
+        this.writer = writer;
+        this.readers = new ArrayBlockingQueue<>(readerCount);
+    }
+
+    static ExpenseDatabase open(String url, int readerCount) throws ClassNotFoundException, SQLException {
+        // Load SQLite JDBC driver
+        Class.forName("org.sqlite.JDBC");
+
+        Connection writer = DriverManager.getConnection(url);
+        try (Statement statement = writer.createStatement()) {
+            // WAL is persistent in the file, so this only changes anything the first time
+            statement.execute("PRAGMA journal_mode = WAL");
+        }
+        configure(writer);
+
+        ExpenseDatabase database = new ExpenseDatabase(writer, readerCount);
+        for (int i = 0; i < readerCount; i++) {
+            Connection reader = DriverManager.getConnection(url);
+            configure(reader);
+            try (Statement statement = reader.createStatement()) {
+                statement.execute("PRAGMA query_only = ON");
+            }
+            database.readers.add(reader);
+            database.allReaders.add(reader);
+        }
+        return database;
+    }
+
+    private static void configure(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // WAL only needs fsync at checkpoints; a crash can lose the last commits but not corrupt the file
+            statement.execute("PRAGMA synchronous = NORMAL");
+            statement.execute("PRAGMA foreign_keys = ON");
+            statement.execute("PRAGMA busy_timeout = 5000");
+            statement.execute("PRAGMA cache_size = -16384");      // 16 MB page cache
+            statement.execute("PRAGMA mmap_size = 268435456");    // map up to 256 MB of the file
+            statement.execute("PRAGMA temp_store = MEMORY");
+        }
+    }
+
+    // The one connection that writes. Callers must serialize access to it.
+    Connection writer() {
+        return writer;
+    }
+
+    // Runs the work on a pooled read-only connection, waiting if all are busy
+    <T> T read(SqlFunction<T> work) throws SQLException {
+        Connection reader;
+        try {
+            reader = readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a read connection", e);
+        }
+        try {
+            return work.apply(reader);
+        } finally {
+            readers.add(reader);
+        }
+    }
+
+    void close() throws SQLException {
+        for (Connection reader : allReaders) {
+            reader.close();
+        }
+        writer.close();
+    }
+}
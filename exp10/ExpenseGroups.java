@@ -0,0 +1,177 @@
+import java.io.File;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Registry of expense groups: a trip, a household, anything whose expenses are settled
+// among themselves. Each group's ledger is a database file of its own, with its own
+// journal, search index, balances and rollups, so opening a group reads and writes only
+// that group's data and every query is as small as the group. The ledger from before
+// groups existed is the "General" group in expenses.db.
+//
+// Archived groups stay in the registry and on disk but are never opened by the window,
+// so a finished trip costs nothing while the program runs. The registry itself is a
+// small database that is only touched when groups are listed or changed.
+class ExpenseGroups {
+    static final String REGISTRY_URL = "jdbc:sqlite:groups.db";
+    static final String DEFAULT_GROUP = "General";
+    // Id of the General group, created with the registry
+    static final long GENERAL_ID = 1;
+    static final String DEFAULT_FILE = "expenses.db";
+    // Where the databases of groups created here are kept
+    static final String GROUP_DIRECTORY = "groups";
+
+    static class Group {
+        final long id;
+        final String name;
+        // Database file, relative to the working directory
+        final String file;
+        final boolean archived;
+
+        Group(long id, String name, String file, boolean archived) {
+            this.id = id;
+            this.name = name;
+            this.file = file;
+            this.archived = archived;
+        }
+
+        String databaseUrl() {
+            return "jdbc:sqlite:" + file;
+        }
+
+        boolean isGeneral() {
+            return id == GENERAL_ID;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final Connection connection;
+
+    private ExpenseGroups(Connection connection) {
+        this.connection = connection;
+    }
+
+    static ExpenseGroups open(String url) throws ClassNotFoundException, SQLException {
+        Class.forName("org.sqlite.JDBC");
+        Connection connection = DriverManager.getConnection(url);
+        try {
+            SchemaMigrations.migrate(connection, Collections.singletonList(
+                    new SchemaMigrations.Migration("groups", ExpenseGroups::createGroups)));
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+        return new ExpenseGroups(connection);
+    }
+
+    // The existing ledger becomes the first group, so nothing has to be moved
+    private static void createGroups(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS groups (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "name TEXT NOT NULL UNIQUE COLLATE NOCASE," +
+                "file TEXT NOT NULL UNIQUE," +
+                "archived INTEGER NOT NULL DEFAULT 0" +
+                ")");
+        statement.execute("INSERT OR IGNORE INTO groups (id, name, file) VALUES (" + GENERAL_ID + ", '" + DEFAULT_GROUP + "', '" +
+                DEFAULT_FILE + "')");
+    }
+
+    // Groups by name; archived ones only when asked for
+    synchronized List<Group> list(boolean includeArchived) throws SQLException {
+        List<Group> groups = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT id, name, file, archived FROM groups" +
+                     (includeArchived ? "" : " WHERE archived = 0") + " ORDER BY id != " + GENERAL_ID + ", name")) {
+            while (rs.next()) {
+                groups.add(group(rs));
+            }
+        }
+        return groups;
+    }
+
+    // The group with this name, ignoring case, or null
+    synchronized Group find(String name) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT id, name, file, archived FROM groups WHERE name = ?")) {
+            pstmt.setString(1, name.trim());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? group(rs) : null;
+            }
+        }
+    }
+
+    // Registers a group with an empty ledger; its database is created when first opened
+    synchronized Group create(String name) throws SQLException {
+        String trimmed = name == null ? "" : name.trim();
+        if (trimmed.isEmpty()) {
+            throw new IllegalArgumentException("Please enter a group name.");
+        }
+        if (find(trimmed) != null) {
+            throw new IllegalArgumentException("There is already a group called " + trimmed + ".");
+        }
+        new File(GROUP_DIRECTORY).mkdirs();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO groups (name, file) VALUES (?, '')", Statement.RETURN_GENERATED_KEYS);
+             PreparedStatement setFile = connection.prepareStatement("UPDATE groups SET file = ? WHERE id = ?")) {
+            insert.setString(1, trimmed);
+            insert.executeUpdate();
+            long id;
+            try (ResultSet rs = insert.getGeneratedKeys()) {
+                rs.next();
+                id = rs.getLong(1);
+            }
+            // Named by id so renaming a group never has to move its files
+            String file = GROUP_DIRECTORY + File.separator + "group-" + id + ".db";
+            setFile.setString(1, file);
+            setFile.setLong(2, id);
+            setFile.executeUpdate();
+            connection.commit();
+            return new Group(id, trimmed, file, false);
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    synchronized void setArchived(Group group, boolean archived) throws SQLException {
+        if (archived && group.isGeneral()) {
+            throw new IllegalArgumentException("The " + DEFAULT_GROUP + " group cannot be archived.");
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement("UPDATE groups SET archived = ? WHERE id = ?")) {
+            pstmt.setInt(1, archived ? 1 : 0);
+            pstmt.setLong(2, group.id);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static Group group(ResultSet rs) throws SQLException {
+        return new Group(rs.getLong("id"), rs.getString("name"), rs.getString("file"), rs.getInt("archived") != 0);
+    }
+
+    synchronized void close() throws SQLException {
+        connection.close();
+    }
+
+    // The database of the named group, for the headless tools' --group option
+    static String databaseUrl(String groupName) throws ClassNotFoundException, SQLException {
+        ExpenseGroups groups = open(REGISTRY_URL);
+        try {
+            Group group = groups.find(groupName);
+            if (group == null) {
+                throw new IllegalArgumentException("There is no group called " + groupName + ".");
+            }
+            return group.databaseUrl();
+        } finally {
+            groups.close();
+        }
+    }
+}
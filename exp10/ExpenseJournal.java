@@ -0,0 +1,478 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+// Write-behind log for new expenses. A split is appended to a local file and is safe once
+// that append reaches the disk; the database insert happens afterwards. One thread writes
+// every append waiting in the queue and syncs them together, so concurrent splits share
+// one fsync. An applier drains synced entries into SQLite in batches, one transaction
+// per batch, recording the last sequence applied in the same transaction. On startup
+// every entry past that sequence is applied again, so a crash loses nothing that was
+// acknowledged. Once everything has been applied the file is truncated.
+//
+// Entry layout: int length, int CRC32 of the body, then the body: long sequence,
+// description, double total, long epoch day, paid_by, int count, names, then one long
+// share in cents per name. Entries written before shares were recorded end after the
+// names and are split evenly. A torn or corrupt tail left by a crash is cut off when the
+// journal is opened.
+//
+// A batch the database rejects is halved until the failing entry is on its own. That
+// entry is retried with a growing delay, and after MAX_ATTEMPTS it is moved to a
+// dead-letter file beside the journal, in the same format. Its split fails, and the
+// entries after it carry on.
+class ExpenseJournal {
+    // Truncate the file once it grows past this and nothing is waiting to be applied
+    static final long TRUNCATE_BYTES = 4L << 20;
+    // Most appends written and synced together
+    static final int MAX_GROUP = 1024;
+    // Wait before retrying a batch the database rejected; doubles with each attempt
+    static final long RETRY_MILLIS = 1000;
+    // Tries an entry gets on its own before it is set aside as a dead letter
+    static final int MAX_ATTEMPTS = 5;
+
+    private static final Logger LOG = Logger.getLogger("ExpenseSplitter.journal");
+
+    // A journaled split: durable completes when the entry is on disk, saved with the
+    // expense id once it has been written to the database
+    static class Append {
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+        final CompletableFuture<Long> saved = new CompletableFuture<>();
+        final NewExpense expense;
+        long sequence;
+        // The encoded entry, made before it is queued; its sequence is set when written
+        byte[] body;
+        // Failed attempts to apply this entry on its own
+        int attempts;
+
+        Append(NewExpense expense) {
+            this.expense = expense;
+        }
+    }
+
+    private static final Append STOP = new Append(null);
+
+    private final FileChannel channel;
+    private final Path deadLetters;
+    private final AsyncExpenseStore store;
+    private final BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    // Completes once the entries found on startup are in the database
+    private final CompletableFuture<Void> replayed = new CompletableFuture<>();
+    private long lastSequence;
+    private volatile boolean closed;
+    // Set if a failed append could not be cut off; nothing more is accepted after it
+    private IOException damaged;
+
+    // Synced but not yet applied, oldest first; guarded by this
+    private final List<Append> unapplied = new ArrayList<>();
+    private CompletableFuture<long[]> applying;
+    private long appliedSequence;
+    private long retryAt;
+    // Largest batch to try; cut down while looking for an entry the database rejects
+    private int batchLimit = Integer.MAX_VALUE;
+    // Last entry set aside as a dead letter, to be recorded as applied
+    private long skippedSequence;
+
+    private ExpenseJournal(FileChannel channel, Path deadLetters, AsyncExpenseStore store, long appliedSequence) {
+        this.channel = channel;
+        this.deadLetters = deadLetters;
+        this.store = store;
+        this.appliedSequence = appliedSequence;
+        this.lastSequence = appliedSequence;
+        this.writer = new Thread(this::writeLoop, "expense-journal");
+        this.writer.setDaemon(true);
+    }
+
+    // The journal file beside a jdbc:sqlite: database: expenses.db -> expenses.journal
+    static Path pathFor(String databaseUrl) {
+        String file = databaseUrl.substring(databaseUrl.indexOf(':', "jdbc:".length()) + 1);
+        int dot = file.lastIndexOf('.');
+        return Paths.get((dot > file.lastIndexOf(File.separatorChar) ? file.substring(0, dot) : file) + ".journal");
+    }
+
+    // Opens the journal and queues whatever the database has not applied yet
+    static ExpenseJournal open(Path file, AsyncExpenseStore store) throws IOException, SQLException {
+        long applied;
+        try {
+            applied = store.journalSequence().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading the journal position");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+        ExpenseJournal journal = new ExpenseJournal(channel, file.resolveSibling(file.getFileName() + ".dead"),
+                                                    store, applied);
+        List<Append> pending = journal.readEntries();
+        if (!pending.isEmpty()) {
+            LOG.info("Replaying " + pending.size() + " journaled expenses");
+        }
+        synchronized (journal) {
+            journal.unapplied.addAll(pending);
+            journal.startApply();
+            if (journal.applying == null) {
+                journal.replayed.complete(null);
+            }
+        }
+        journal.writer.start();
+        return journal;
+    }
+
+    // Reads every intact entry, cuts off a damaged tail and returns the entries the
+    // database has not applied
+    private List<Append> readEntries() throws IOException {
+        List<Append> pending = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(8);
+        long position = 0;
+        long size = channel.size();
+        while (position + 8 <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length <= 8 || position + 8 + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            channel.read(body, position + 8);
+            CRC32 crc = new CRC32();
+            crc.update(body.array());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            Append entry = decode(body.array());
+            lastSequence = Math.max(lastSequence, entry.sequence);
+            if (entry.sequence > appliedSequence) {
+                entry.durable.complete(null);
+                pending.add(entry);
+            }
+            position += 8 + length;
+        }
+        if (position < size) {
+            LOG.warning("Discarding " + (size - position) + " bytes of damaged journal tail");
+            channel.truncate(position);
+            channel.force(true);
+        }
+        channel.position(position);
+        return pending;
+    }
+
+    // Queues the expense; the returned futures complete as it is synced and applied
+    Append append(NewExpense expense) {
+        Append append = new Append(expense);
+        if (closed) {
+            IllegalStateException error = new IllegalStateException("The journal is closed");
+            append.durable.completeExceptionally(error);
+            append.saved.completeExceptionally(error);
+            return append;
+        }
+        // Encoded here so an entry that cannot be written fails alone, not its whole group
+        try {
+            append.body = encode(append);
+        } catch (IOException e) {
+            append.durable.completeExceptionally(e);
+            append.saved.completeExceptionally(e);
+            return append;
+        }
+        queue.add(append);
+        return append;
+    }
+
+    // Completes once the entries left over from the last run are in the database
+    CompletableFuture<Void> replayed() {
+        return replayed;
+    }
+
+    private void writeLoop() {
+        List<Append> group = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            group.clear();
+            try {
+                Append first = queue.poll(RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    group.add(first);
+                    queue.drainTo(group, MAX_GROUP - 1);
+                }
+            } catch (InterruptedException e) {
+                stopping = true;
+            }
+            if (group.remove(STOP)) {
+                stopping = true;
+            }
+            if (!group.isEmpty()) {
+                writeGroup(group);
+            }
+            synchronized (this) {
+                startApply();
+            }
+        }
+        // Appends that raced with close
+        List<Append> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        rest.remove(STOP);
+        if (!rest.isEmpty()) {
+            writeGroup(rest);
+            synchronized (this) {
+                startApply();
+            }
+        }
+    }
+
+    private void writeGroup(List<Append> group) {
+        long start = -1;
+        long firstSequence = lastSequence;
+        try {
+            if (damaged != null) {
+                throw damaged;
+            }
+            truncateIfApplied();
+            start = channel.position();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(group.size() * 128);
+            for (Append append : group) {
+                append.sequence = ++lastSequence;
+                writeEntry(append, bytes);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Journal append failed", e);
+            rollBack(start, firstSequence);
+            for (Append append : group) {
+                append.durable.completeExceptionally(e);
+                append.saved.completeExceptionally(e);
+            }
+            return;
+        }
+        synchronized (this) {
+            unapplied.addAll(group);
+        }
+        for (Append append : group) {
+            append.durable.complete(null);
+        }
+    }
+
+    // Cuts off whatever part of a failed group reached the file, so the next group is not
+    // written after a torn entry that replay would stop at
+    private void rollBack(long start, long firstSequence) {
+        lastSequence = firstSequence;
+        if (start < 0) {
+            return;
+        }
+        try {
+            channel.truncate(start);
+            channel.position(start);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Could not cut the failed append out of the journal; refusing further appends", e);
+            damaged = e;
+        }
+    }
+
+    // Starts the next batch unless one is still running; called with the lock held
+    private void startApply() {
+        if (applying != null || System.currentTimeMillis() < retryAt) {
+            return;
+        }
+        List<Append> next = unapplied.subList(0, Math.min(unapplied.size(), batchLimit));
+        List<Append> batch = new ArrayList<>(next);
+        next.clear();
+        long last;
+        if (!batch.isEmpty()) {
+            last = batch.get(batch.size() - 1).sequence;
+        } else if (skippedSequence > appliedSequence) {
+            // Nothing left to insert, but the database must learn the dead letter is done
+            last = skippedSequence;
+        } else {
+            return;
+        }
+        List<NewExpense> expenses = new ArrayList<>(batch.size());
+        for (Append append : batch) {
+            expenses.add(append.expense);
+        }
+        applying = store.saveJournaled(expenses, last);
+        applying.whenComplete((ids, error) -> applied(batch, last, ids, error));
+    }
+
+    private void applied(List<Append> batch, long last, long[] ids, Throwable error) {
+        Append rejected = null;
+        synchronized (this) {
+            applying = null;
+            if (error != null) {
+                // Keep the batch at the front so nothing is applied out of order
+                if (batch.size() > 1) {
+                    LOG.log(Level.WARNING, "Applying " + batch.size() + " journaled expenses failed; retrying in halves", error);
+                    unapplied.addAll(0, batch);
+                    batchLimit = batch.size() / 2;
+                } else if (batch.isEmpty() || ++batch.get(0).attempts < MAX_ATTEMPTS || !setAside(batch.get(0), error)) {
+                    int attempts = batch.isEmpty() ? 1 : Math.max(1, batch.get(0).attempts);
+                    LOG.log(Level.WARNING, "Applying journaled expense failed; will retry", error);
+                    unapplied.addAll(0, batch);
+                    retryAt = System.currentTimeMillis() + (RETRY_MILLIS << Math.min(attempts - 1, MAX_ATTEMPTS));
+                } else {
+                    rejected = batch.get(0);
+                    skippedSequence = rejected.sequence;
+                }
+                startApply();
+                notifyAll();
+            } else {
+                batchLimit = Integer.MAX_VALUE;
+                appliedSequence = last;
+                startApply();
+                if (applying == null) {
+                    replayed.complete(null);
+                }
+                notifyAll();
+            }
+        }
+        if (rejected != null) {
+            rejected.saved.completeExceptionally(new SQLException("The database rejected this expense; it was set aside in " +
+                    deadLetters, error instanceof CompletionException ? error.getCause() : error));
+            return;
+        }
+        if (error == null) {
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).saved.complete(ids[i]);
+            }
+        }
+    }
+
+    // Appends an entry the database keeps rejecting to the dead-letter file; false if
+    // that failed too, in which case the entry stays queued
+    private boolean setAside(Append append, Throwable error) {
+        try (FileChannel out = FileChannel.open(deadLetters, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.APPEND)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            writeEntry(append, bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(false);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Could not write dead letter " + append.sequence + " to " + deadLetters, e);
+            return false;
+        }
+        LOG.log(Level.SEVERE, "Set journaled expense " + append.sequence + " (" + append.expense.description +
+                ") aside in " + deadLetters + " after " + append.attempts + " failed attempts", error);
+        return true;
+    }
+
+    // Only the writer thread calls this, so nothing can be appended meanwhile
+    private void truncateIfApplied() throws IOException {
+        synchronized (this) {
+            if (appliedSequence != lastSequence || channel.position() < TRUNCATE_BYTES) {
+                return;
+            }
+        }
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+    }
+
+    // Header and body of one entry
+    private static void writeEntry(Append append, ByteArrayOutputStream bytes) throws IOException {
+        if (append.body == null) {
+            append.body = encode(append);
+        }
+        byte[] body = append.body;
+        // The sequence is the first field
+        ByteBuffer.wrap(body).putLong(0, append.sequence);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        bytes.write(ByteBuffer.allocate(8).putInt(body.length).putInt((int) crc.getValue()).array());
+        bytes.write(body);
+    }
+
+    private static byte[] encode(Append append) throws IOException {
+        NewExpense expense = append.expense;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(append.sequence);
+        out.writeUTF(expense.description);
+        out.writeDouble(expense.totalAmount);
+        out.writeLong(expense.date.toEpochDay());
+        out.writeUTF(expense.paidBy);
+        out.writeInt(expense.names.size());
+        for (String name : expense.names) {
+            out.writeUTF(name);
+        }
+        for (long share : expense.shares) {
+            out.writeLong(share);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Append decode(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        long sequence = in.readLong();
+        String description = in.readUTF();
+        double totalAmount = in.readDouble();
+        LocalDate date = LocalDate.ofEpochDay(in.readLong());
+        String paidBy = in.readUTF();
+        int count = in.readInt();
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(in.readUTF());
+        }
+        NewExpense expense;
+        if (in.available() > 0) {
+            long[] shares = new long[count];
+            for (int i = 0; i < count; i++) {
+                shares[i] = in.readLong();
+            }
+            expense = new NewExpense(description, totalAmount, date, paidBy, names, shares);
+        } else {
+            expense = new NewExpense(description, totalAmount, date, paidBy, names);
+        }
+        Append append = new Append(expense);
+        append.sequence = sequence;
+        return append;
+    }
+
+    // Writes out queued appends and waits until everything synced has been applied or
+    // the applier has given up on a batch. The file is emptied if nothing is left;
+    // otherwise the rest is replayed on the next start.
+    void close() throws IOException {
+        closed = true;
+        queue.add(STOP);
+        try {
+            writer.join();
+            synchronized (this) {
+                retryAt = 0;
+                startApply();
+                while (applying != null) {
+                    wait();
+                }
+                if (appliedSequence == lastSequence) {
+                    channel.truncate(0);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+import java.time.LocalDate;
+import java.util.List;
+
+// An expense as shown in the records view, with its participants folded in
+class ExpenseRecord {
+    final long id;
+    final LocalDate date;
+    final String description;
+    final String paidBy;
+    final double totalAmount;
+    final int peopleCount;
+    final List<String> names;
+    // Each person's share in cents, in the order of names
+    final long[] shares;
+    // The share when the expense was split evenly, otherwise NaN
+    final double amountPerPerson;
+    
+    ExpenseRecord(long id, LocalDate date, String description, String paidBy, double totalAmount, 
+                  int peopleCount, List<String> names, long[] shares) {
+        this.id = id;
+        this.date = date;
+        this.description = description;
+        this.paidBy = paidBy;
+        this.totalAmount = totalAmount;
+        this.peopleCount = peopleCount;
+        this.names = names;
+        this.shares = shares;
+        this.amountPerPerson = evenShare(totalAmount, shares);
+    }
+    
+    // An even split leaves shares at most a cent apart
+    private static double evenShare(double totalAmount, long[] shares) {
+        if (shares.length == 0) {
+            return 0;
+        }
+        long min = shares[0], max = shares[0];
+        for (long share : shares) {
+            min = Math.min(min, share);
+            max = Math.max(max, share);
+        }
+        return max - min <= 1 ? totalAmount / shares.length : Double.NaN;
+    }
+    
+    double share(int index) {
+        return shares[index] / 100.0;
+    }
+    
+    String joinedNames() {
+        return String.join(", ", names);
+    }
+}
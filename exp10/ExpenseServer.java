@@ -0,0 +1,415 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+
+// JSON HTTP API over ExpenseService, served by the JDK's built-in HTTP server:
+//
+//   GET    /expenses?name=|description=|date=TEXT&limit=N&after=CURSOR
+//   POST   /expenses          {"description", "totalAmount", "date"?, "paidBy", "names": [...],
+//                              "split"?: "equal"|"shares"|"percent"|"exact", "values"?: [...]}
+//   GET    /expenses/{id}
+//   PUT    /expenses/{id}     same body as POST; returns {"rowsChanged"}
+//   DELETE /expenses/{id}
+//   GET    /balances          {"name": cents, ...}
+//   GET    /settlement        [{"from", "to", "cents"}, ...]
+//   GET    /reports/months    [{"month", "expenses", "totalCents"}, ...]
+//   GET    /reports/people?month=YYYY-MM
+//                             [{"month", "name", "shares", "owedCents", "paidCents"}, ...]
+//
+// Each request runs on its own virtual thread where the JVM has them, so a client
+// waiting on the database holds no platform thread. The database side stays bounded:
+// queries share the read connections and writes queue for the single writer.
+class ExpenseServer {
+    static final int DEFAULT_PORT = 8080;
+    // Connections the OS may queue before the server accepts them
+    private static final int BACKLOG = 1024;
+    // Largest request body read; an expense is a few hundred bytes
+    static final int MAX_BODY_BYTES = 1 << 20;
+
+    private final ExpenseService service;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    ExpenseServer(ExpenseService service, int port) throws IOException {
+        this.service = service;
+        this.executor = requestExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        server.setExecutor(executor);
+        server.createContext("/expenses", this::handleExpenses);
+        server.createContext("/balances", exchange -> handle(exchange, () -> {
+            requireMethod(exchange, "GET");
+            return new Response(200, await(service.loadBalances()));
+        }));
+        server.createContext("/settlement", exchange -> handle(exchange, () -> {
+            requireMethod(exchange, "GET");
+            List<Object> transfers = new ArrayList<>();
+            for (Settlement.Transfer transfer : await(service.settle())) {
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("from", transfer.from);
+                json.put("to", transfer.to);
+                json.put("cents", transfer.cents);
+                transfers.add(json);
+            }
+            return new Response(200, transfers);
+        }));
+        server.createContext("/reports/months", exchange -> handle(exchange, () -> {
+            requireMethod(exchange, "GET");
+            List<Object> rows = new ArrayList<>();
+            for (Rollups.MonthTotal total : await(service.loadMonthTotals())) {
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("month", Rollups.formatMonth(total.month));
+                json.put("expenses", total.expenseCount);
+                json.put("totalCents", total.totalCents);
+                rows.add(json);
+            }
+            return new Response(200, rows);
+        }));
+        server.createContext("/reports/people", exchange -> handle(exchange, () -> {
+            requireMethod(exchange, "GET");
+            String month = query(exchange).get("month");
+            Integer key = null;
+            if (month != null) {
+                try {
+                    key = Rollups.monthOf(java.time.YearMonth.parse(month).atDay(1));
+                } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException("month must be YYYY-MM");
+                }
+            }
+            List<Object> rows = new ArrayList<>();
+            for (Rollups.PersonMonthTotal total : await(service.loadPersonMonthTotals(key))) {
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("month", Rollups.formatMonth(total.month));
+                json.put("name", total.name);
+                json.put("shares", total.shareCount);
+                json.put("owedCents", total.owedCents);
+                json.put("paidCents", total.paidCents);
+                rows.add(json);
+            }
+            return new Response(200, rows);
+        }));
+    }
+
+    // Virtual thread per request on Java 21+, otherwise a cached pool of platform threads
+    private static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "expense-http");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // Usage: --serve [PORT]; serves until the process is stopped
+    static void run(String[] args) throws Exception {
+        int port = args.length >= 2 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        ExpenseService service = ExpenseService.open(ExpenseSplitter.databaseUrl());
+        ExpenseServer server = new ExpenseServer(service, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                service.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }));
+        server.start();
+        System.err.println("Serving the expense ledger on port " + server.port());
+    }
+
+    void start() {
+        server.start();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    // Lets in-flight requests finish for up to a second
+    void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    private static class Response {
+        final int status;
+        final Object body;
+
+        Response(int status, Object body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private static class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private interface Handler {
+        Response handle() throws Exception;
+    }
+
+    private void handleExpenses(HttpExchange exchange) throws IOException {
+        handle(exchange, () -> {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals("/expenses") || path.equals("/expenses/")) {
+                if ("GET".equals(method)) {
+                    return listExpenses(query(exchange));
+                }
+                requireMethod(exchange, "POST");
+                Map<?, ?> body = readBody(exchange);
+                NewExpense expense = toExpense(body, LocalDate.now());
+                // Wait for the database write so the new id can be read back straight away
+                long id = await(service.split(expense.description, expense.totalAmount, expense.date, expense.paidBy, expense.names,
+                                              toRule(body)).saved);
+                return new Response(201, Collections.singletonMap("id", id));
+            }
+
+            long id;
+            try {
+                id = Long.parseLong(path.substring("/expenses/".length()));
+            } catch (NumberFormatException e) {
+                throw new HttpError(404, "No such resource");
+            }
+            switch (method) {
+                case "GET":
+                    ExpenseRecord record = await(service.findExpense(id));
+                    if (record == null) {
+                        throw new HttpError(404, "No expense with id " + id);
+                    }
+                    return new Response(200, toJson(record));
+                case "PUT":
+                    if (await(service.findExpense(id)) == null) {
+                        throw new HttpError(404, "No expense with id " + id);
+                    }
+                    Map<?, ?> body = readBody(exchange);
+                    NewExpense expense = toExpense(body, null);
+                    int rows = await(service.updateExpense(id, expense.description, expense.totalAmount, expense.date, expense.paidBy,
+                                                           expense.names, toRule(body)));
+                    return new Response(200, Collections.singletonMap("rowsChanged", rows));
+                case "DELETE":
+                    if (await(service.deleteExpenses(new long[] {id})) == 0) {
+                        throw new HttpError(404, "No expense with id " + id);
+                    }
+                    return new Response(204, null);
+                default:
+                    throw new HttpError(405, "Method not allowed");
+            }
+        });
+    }
+
+    private Response listExpenses(Map<String, String> query) throws Exception {
+        RecordFilter filter = RecordFilter.ALL;
+        for (String field : new String[] {"name", "description", "date"}) {
+            if (query.containsKey(field)) {
+                filter = filter.and(ExpenseService.filter(field, query.get(field)));
+            }
+        }
+        int limit = query.containsKey("limit") ? parseInt(query.get("limit"), "limit") : ExpenseTableModel.PAGE_SIZE;
+        ExpenseStore.PageKey after = query.containsKey("after") ? parseCursor(query.get("after")) : null;
+
+        ExpenseService.RecordPage page = await(service.findRecords(filter, after, limit));
+        List<Object> records = new ArrayList<>(page.records.size());
+        for (ExpenseRecord record : page.records) {
+            records.add(toJson(record));
+        }
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        if (page.total >= 0) {
+            json.put("total", page.total);
+        }
+        json.put("expenses", records);
+        // Cursor of the last row, to be passed as after= for the next page
+        if (page.records.size() == limit) {
+            ExpenseStore.PageKey last = ExpenseStore.PageKey.of(page.records.get(page.records.size() - 1));
+            json.put("next", last.day + ":" + last.id);
+        }
+        return new Response(200, json);
+    }
+
+    private static ExpenseStore.PageKey parseCursor(String cursor) {
+        int separator = cursor.indexOf(':');
+        try {
+            return new ExpenseStore.PageKey(Long.parseLong(cursor.substring(0, separator)),
+                                            Long.parseLong(cursor.substring(separator + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    // Reads an expense body; a missing date becomes defaultDate
+    private static Map<?, ?> readBody(HttpExchange exchange) throws IOException {
+        Object parsed;
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (bytes.length > MAX_BODY_BYTES) {
+                throw new HttpError(413, "Request body is larger than " + MAX_BODY_BYTES + " bytes");
+            }
+            parsed = Json.parse(new String(bytes, StandardCharsets.UTF_8));
+        }
+        if (!(parsed instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        return (Map<?, ?>) parsed;
+    }
+
+    private static NewExpense toExpense(Map<?, ?> body, LocalDate defaultDate) {
+        Object amount = body.get("totalAmount");
+        if (!(amount instanceof Number)) {
+            throw new IllegalArgumentException("totalAmount must be a number");
+        }
+        LocalDate date = defaultDate;
+        if (body.get("date") != null) {
+            try {
+                date = LocalDate.parse(String.valueOf(body.get("date")));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid date format. Use YYYY-MM-DD.");
+            }
+        }
+        List<String> names = new ArrayList<>();
+        if (body.get("names") instanceof List) {
+            for (Object name : (List<?>) body.get("names")) {
+                names.add(name instanceof String ? (String) name : null);
+            }
+        }
+        Object description = body.get("description");
+        Object paidBy = body.get("paidBy");
+        return new NewExpense(description instanceof String ? (String) description : null, ((Number) amount).doubleValue(),
+                              date, paidBy instanceof String ? (String) paidBy : null, names);
+    }
+
+    // An even split unless the body names another one and gives one value per person
+    private static SplitEngine.Rule toRule(Map<?, ?> body) {
+        Object split = body.get("split");
+        if (split == null) {
+            return SplitEngine.Rule.EQUAL;
+        }
+        SplitEngine.Mode mode = SplitEngine.Mode.parse(String.valueOf(split));
+        if (mode == SplitEngine.Mode.EQUAL) {
+            return SplitEngine.Rule.EQUAL;
+        }
+        if (!(body.get("values") instanceof List)) {
+            throw new IllegalArgumentException("values must be a list of numbers");
+        }
+        List<?> list = (List<?>) body.get("values");
+        double[] values = new double[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            if (!(list.get(i) instanceof Number)) {
+                throw new IllegalArgumentException("values must be a list of numbers");
+            }
+            values[i] = ((Number) list.get(i)).doubleValue();
+        }
+        return new SplitEngine.Rule(mode, values);
+    }
+
+    private static Map<String, Object> toJson(ExpenseRecord record) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", record.id);
+        json.put("date", record.date.toString());
+        json.put("description", record.description);
+        json.put("paidBy", record.paidBy);
+        json.put("totalAmount", record.totalAmount);
+        json.put("peopleCount", record.peopleCount);
+        json.put("names", record.names);
+        List<Double> amounts = new ArrayList<>(record.shares.length);
+        for (int i = 0; i < record.shares.length; i++) {
+            amounts.add(record.share(i));
+        }
+        json.put("amounts", amounts);
+        if (!Double.isNaN(record.amountPerPerson)) {
+            json.put("amountPerPerson", record.amountPerPerson);
+        }
+        return json;
+    }
+
+    // Runs the handler and writes its response, mapping failures to error statuses
+    private static void handle(HttpExchange exchange, Handler handler) throws IOException {
+        Response response;
+        try {
+            response = handler.handle();
+        } catch (HttpError e) {
+            response = new Response(e.status, Collections.singletonMap("error", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            response = new Response(400, Collections.singletonMap("error", e.getMessage()));
+        } catch (Exception | Error e) {
+            // Errors too, so a client is never left waiting for a response that never comes
+            e.printStackTrace();
+            response = new Response(500, Collections.singletonMap("error", String.valueOf(e.getMessage())));
+        }
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (response.body == null) {
+                exchange.sendResponseHeaders(response.status, -1);
+                return;
+            }
+            byte[] bytes = Json.write(response.body).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(response.status, bytes.length);
+            out.write(bytes);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Waits for a service call, unwrapping the failure that completed it
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) {
+        if (!method.equals(exchange.getRequestMethod())) {
+            throw new HttpError(405, "Method not allowed");
+        }
+    }
+
+    private static int parseInt(String value, String name) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals >= 0 ? pair.substring(0, equals) : pair;
+            String value = equals >= 0 ? pair.substring(equals + 1) : "";
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+}
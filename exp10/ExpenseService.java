@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// The ledger's operations without any user interface: validating and splitting an
+// expense, saving, querying, editing and deleting it, and settling up. The Swing
+// window and the HTTP API are both clients of this class. Invalid input is rejected
+// with an IllegalArgumentException before anything is queued; database work runs on
+// the AsyncExpenseStore executors and completes the returned futures. New expenses go
+// through the write-behind journal rather than straight to the database.
+class ExpenseService {
+    // Upper bound on the page size a client may ask for
+    static final int MAX_PAGE_SIZE = 1000;
+    // Largest expense accepted, in cents ($1,000,000,000), so that the totals and
+    // balances summed from many expenses stay far inside a long
+    static final long MAX_CENTS = 100_000_000_000L;
+    // Longest description or name accepted, in characters; well inside what the journal
+    // can encode (65535 bytes per string)
+    static final int MAX_TEXT_LENGTH = 1000;
+
+    // One page of records; total is only counted for the first page (after == null)
+    static class RecordPage {
+        final int total;
+        final List<ExpenseRecord> records;
+
+        RecordPage(int total, List<ExpenseRecord> records) {
+            this.total = total;
+            this.records = records;
+        }
+    }
+
+    private final AsyncExpenseStore store;
+    private final ExpenseJournal journal;
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(AsyncExpenseStore.daemon("expense-search"));
+    // Null until first asked for. Updates are chained onto this future, so they apply in
+    // order and only once the index has been built.
+    private CompletableFuture<SearchIndex> searchIndex;
+
+    ExpenseService(AsyncExpenseStore store, ExpenseJournal journal) {
+        this.store = store;
+        this.journal = journal;
+    }
+
+    // Opens the database and its journal, replaying any splits a crash left unapplied
+    static ExpenseService open(String databaseUrl) throws ClassNotFoundException, SQLException, IOException {
+        AsyncExpenseStore store = new AsyncExpenseStore(ExpenseStore.open(databaseUrl));
+        try {
+            return new ExpenseService(store, ExpenseJournal.open(ExpenseJournal.pathFor(databaseUrl), store));
+        } catch (IOException | SQLException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+    }
+
+    // The underlying store, for clients that page through records themselves
+    AsyncExpenseStore store() {
+        return store;
+    }
+
+    // Checks and normalises an expense split evenly, trimming every text field
+    static NewExpense validate(String description, double totalAmount, LocalDate date, String paidBy, List<String> names) {
+        return validate(description, totalAmount, date, paidBy, names, SplitEngine.Rule.EQUAL);
+    }
+
+    // Checks and normalises an expense and works out everyone's share in cents
+    static NewExpense validate(String description, double totalAmount, LocalDate date, String paidBy, List<String> names,
+                               SplitEngine.Rule rule) {
+        if (description == null || description.trim().isEmpty()) {
+            throw new IllegalArgumentException("Please enter a description.");
+        }
+        requireLength(description, "description");
+        if (!(totalAmount > 0) || Double.isInfinite(totalAmount)) {
+            throw new IllegalArgumentException("Please enter a positive amount.");
+        }
+        if (totalAmount * 100 > MAX_CENTS) {
+            throw new IllegalArgumentException(String.format("Please enter an amount of at most %,.2f.", MAX_CENTS / 100.0));
+        }
+        if (ExpenseStore.toCents(totalAmount) <= 0) {
+            throw new IllegalArgumentException("Please enter a positive amount.");
+        }
+        if (paidBy == null || paidBy.trim().isEmpty()) {
+            throw new IllegalArgumentException("Please enter who paid.");
+        }
+        requireLength(paidBy, "payer's name");
+        if (names == null || names.isEmpty()) {
+            throw new IllegalArgumentException("Please enter a positive number of people.");
+        }
+        List<String> trimmed = new ArrayList<>(names.size());
+        for (String name : names) {
+            if (name == null || name.trim().isEmpty()) {
+                throw new IllegalArgumentException("Please fill in all name fields.");
+            }
+            requireLength(name, "name");
+            trimmed.add(name.trim());
+        }
+        long[] shares = rule.apply(ExpenseStore.toCents(totalAmount), trimmed.size());
+        return new NewExpense(description.trim(), totalAmount, date != null ? date : LocalDate.now(), paidBy.trim(), trimmed, shares);
+    }
+
+    private static void requireLength(String text, String what) {
+        if (text.trim().length() > MAX_TEXT_LENGTH) {
+            throw new IllegalArgumentException("Please keep the " + what + " to " + MAX_TEXT_LENGTH + " characters.");
+        }
+    }
+
+    // The filter for a search on one field: "name", "description" or "date"
+    static RecordFilter filter(String field, String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return RecordFilter.ALL;
+        }
+        text = text.trim();
+        switch (field) {
+            case "name":
+                return RecordFilter.nameContains(text);
+            case "description":
+                return RecordFilter.descriptionContains(text);
+            case "date":
+                DateRange range = DateRange.parse(text);
+                if (range == null) {
+                    throw new IllegalArgumentException(
+                        "Enter a date as YYYY-MM-DD, YYYY-MM or YYYY, or a range such as 2024-01..2024-03.");
+                }
+                return RecordFilter.dateBetween(range);
+            default:
+                throw new IllegalArgumentException("Unknown search field: " + field);
+        }
+    }
+
+    // Validates the expense and appends it to the journal. The split is safe once
+    // durable completes; saved completes with its id after it reaches the database.
+    ExpenseJournal.Append split(String description, double totalAmount, LocalDate date, String paidBy, List<String> names,
+                                SplitEngine.Rule rule) {
+        NewExpense expense = validate(description, totalAmount, date, paidBy, names, rule);
+        ExpenseJournal.Append append = journal.append(expense);
+        append.saved.thenAccept(id -> updateSearchIndex(index -> index.put(toRecord(id, expense))));
+        return append;
+    }
+
+    CompletableFuture<RecordPage> findRecords(RecordFilter filter, ExpenseStore.PageKey after, int limit) {
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        return store.read(s -> new RecordPage(after == null ? s.countRecords(filter) : -1, s.loadPage(filter, after, limit)));
+    }
+
+    // Completes with null when there is no such expense
+    CompletableFuture<ExpenseRecord> findExpense(long expenseId) {
+        return store.findExpense(expenseId);
+    }
+
+    // Completes with the number of rows the edit wrote
+    CompletableFuture<Integer> updateExpense(long expenseId, String description, double totalAmount,
+                                             LocalDate date, String paidBy, List<String> names, SplitEngine.Rule rule) {
+        if (date == null) {
+            throw new IllegalArgumentException("Invalid date format. Use YYYY-MM-DD.");
+        }
+        NewExpense expense = validate(description, totalAmount, date, paidBy, names, rule);
+        return store.updateExpense(expenseId, expense)
+                .thenApply(rows -> {
+                    updateSearchIndex(index -> index.put(toRecord(expenseId, expense)));
+                    return rows;
+                });
+    }
+
+    CompletableFuture<Void> deleteExpense(long expenseId) {
+        return store.deleteExpense(expenseId)
+                .thenRun(() -> updateSearchIndex(index -> index.remove(expenseId)));
+    }
+
+    // Deletes all the expenses in one transaction; completes with the rows removed
+    CompletableFuture<Integer> deleteExpenses(long[] expenseIds) {
+        return store.deleteExpenses(expenseIds).thenApply(rows -> {
+            updateSearchIndex(index -> {
+                for (long expenseId : expenseIds) {
+                    index.remove(expenseId);
+                }
+            });
+            return rows;
+        });
+    }
+
+    // Starts building the in-memory search index from one pass over the ledger, if that
+    // has not happened yet
+    synchronized CompletableFuture<SearchIndex> searchIndex() {
+        if (searchIndex == null) {
+            SearchIndex index = new SearchIndex();
+            // Replayed splits are not passed to the index, so wait until they are in the database
+            searchIndex = journal.replayed().thenCompose(ignored -> store.read(s -> {
+                s.streamRecords(index::put);
+                return index;
+            }));
+        }
+        return searchIndex;
+    }
+
+    synchronized boolean isSearchIndexReady() {
+        return searchIndex != null && searchIndex.isDone() && !searchIndex.isCompletedExceptionally();
+    }
+
+    // Ids of the expenses whose "name" or "description" contains the text, newest first.
+    // Cancelling the returned future stops the search.
+    CompletableFuture<long[]> search(String field, String text) {
+        CompletableFuture<SearchIndex> index = searchIndex();
+        return AsyncExpenseStore.submit(searchExecutor, () -> index.get().search(field, text));
+    }
+
+    private synchronized void updateSearchIndex(java.util.function.Consumer<SearchIndex> update) {
+        if (searchIndex != null) {
+            searchIndex = searchIndex.thenApply(index -> {
+                update.accept(index);
+                return index;
+            });
+        }
+    }
+
+    private static ExpenseRecord toRecord(long id, NewExpense expense) {
+        return new ExpenseRecord(id, expense.date, expense.description, expense.paidBy, expense.totalAmount,
+                                 expense.names.size(), expense.names, expense.shares);
+    }
+
+    CompletableFuture<Map<String, Long>> loadBalances() {
+        return store.loadBalances();
+    }
+
+    // Spend per month from the rollups, newest first
+    CompletableFuture<List<Rollups.MonthTotal>> loadMonthTotals() {
+        return store.read(ExpenseStore::loadMonthTotals);
+    }
+
+    // Everyone's totals for one month (YYYYMM), or for all months when month is null
+    CompletableFuture<List<Rollups.PersonMonthTotal>> loadPersonMonthTotals(Integer month) {
+        return store.read(s -> s.loadPersonMonthTotals(month));
+    }
+
+    // Who has to pay whom to settle every recorded expense
+    CompletableFuture<List<Settlement.Transfer>> settle() {
+        return store.loadBalances().thenApply(Settlement::settle);
+    }
+
+    // Applies journaled splits before the database is closed
+    void close() throws SQLException {
+        searchExecutor.shutdownNow();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            store.close();
+        }
+    }
+}
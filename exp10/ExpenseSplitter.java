@@ -1,51 +1,104 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.awt.event.*;
+import java.lang.management.ManagementFactory;
 import java.sql.*;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.*;
-import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 public class ExpenseSplitter extends JFrame {
-    // Database connection
-    private Connection connection;
+    static final String DATABASE_URL = "jdbc:sqlite:expenses.db";
+    // The group named by --group, or null for the General ledger
+    private static String groupName;
+    // Pause in typing after which the records search runs
+    private static final int SEARCH_DELAY_MS = 150;
+    
+    // When the program started, for the time-to-first-frame measurement
+    private static final long LAUNCH_NANOS = System.nanoTime();
+    
+    // Ledger operations; database work runs off the event dispatch thread. Null until the
+    // database has opened in the background.
+    private ExpenseService service;
+    private boolean closed;
+    
+    // Expense groups. Only the shown group's ledger is open; switching closes it first.
+    private ExpenseGroups groups;
+    private ExpenseGroups.Group group;
+    private JComboBox<ExpenseGroups.Group> groupCombo;
+    private JButton newGroupButton, archiveGroupButton, restoreGroupButton;
+    // Set while the combo is refilled, so that does not count as picking a group
+    private boolean fillingGroups;
+    // Opens and closes ledgers and changes the registry, one job at a time
+    private final ExecutorService ledgerExecutor = Executors.newSingleThreadExecutor(AsyncExpenseStore.daemon("expense-db-open"));
     
     // UI Components
-    private JTextField descriptionField, amountField, peopleCountField;
+    private JTextField descriptionField, amountField, paidByField, peopleCountField;
     private JPanel namesPanel;
-    private JButton splitButton, viewRecordsButton, clearButton;
+    private JButton splitButton, viewRecordsButton, settleUpButton, reportsButton, clearButton;
     private JPanel resultPanel;
     private List<JTextField> nameFields;
+    // Each person's share, percentage or amount, depending on the split mode
+    private List<JTextField> shareFields;
+    private JComboBox<SplitEngine.Mode> splitModeCombo;
     
     // Records view components
     private JDialog recordsDialog;
     private JTable recordsTable;
-    private DefaultTableModel tableModel;
+    private ExpenseTableModel tableModel;
     private JTextField searchField;
     private JComboBox<String> searchTypeCombo;
+    private javax.swing.Timer searchTimer;
+    private CompletableFuture<long[]> pendingSearch;
     private JButton deleteButton, editButton;
     
     public ExpenseSplitter() {
-        // Initialize database
-        initializeDatabase();
-        
         // Set up the main frame
         setTitle("Expense Splitter");
         setSize(600, 500);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLayout(new BorderLayout(10, 10));
         
+        // Group picker
+        JPanel groupPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 5));
+        groupPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 0, 10));
+        groupPanel.add(new JLabel("Group:"));
+        groupCombo = new JComboBox<>();
+        groupCombo.addActionListener(e -> {
+            ExpenseGroups.Group chosen = (ExpenseGroups.Group) groupCombo.getSelectedItem();
+            if (!fillingGroups && chosen != null && (group == null || chosen.id != group.id)) {
+                openGroup(chosen);
+            }
+        });
+        groupPanel.add(groupCombo);
+        
+        newGroupButton = new JButton("New Group...");
+        newGroupButton.addActionListener(e -> createGroup());
+        groupPanel.add(newGroupButton);
+        
+        archiveGroupButton = new JButton("Archive Group");
+        archiveGroupButton.addActionListener(e -> archiveGroup());
+        groupPanel.add(archiveGroupButton);
+        
+        restoreGroupButton = new JButton("Restore Group...");
+        restoreGroupButton.addActionListener(e -> restoreGroup());
+        groupPanel.add(restoreGroupButton);
+        
+        add(groupPanel, BorderLayout.NORTH);
+        
         // Create the main panel with a form
         JPanel mainPanel = new JPanel();
         mainPanel.setLayout(new BoxLayout(mainPanel, BoxLayout.Y_AXIS));
         mainPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
         
         // Create input fields
-        JPanel formPanel = new JPanel(new GridLayout(3, 2, 10, 10));
+        JPanel formPanel = new JPanel(new GridLayout(5, 2, 10, 10));
         formPanel.add(new JLabel("Description:"));
         descriptionField = new JTextField(20);
         formPanel.add(descriptionField);
@@ -54,11 +107,20 @@ public class ExpenseSplitter extends JFrame {
         amountField = new JTextField(10);
         formPanel.add(amountField);
         
+        formPanel.add(new JLabel("Paid By:"));
+        paidByField = new JTextField(15);
+        formPanel.add(paidByField);
+        
         formPanel.add(new JLabel("Number of People:"));
         peopleCountField = new JTextField(5);
         peopleCountField.addActionListener(e -> generateNameFields());
         formPanel.add(peopleCountField);
         
+        formPanel.add(new JLabel("Split:"));
+        splitModeCombo = new JComboBox<>(SplitEngine.Mode.values());
+        splitModeCombo.addActionListener(e -> enableShareFields(shareFields, splitModeCombo));
+        formPanel.add(splitModeCombo);
+        
         mainPanel.add(formPanel);
         
         // Create dynamic names panel
@@ -80,6 +142,14 @@ public class ExpenseSplitter extends JFrame {
         viewRecordsButton.addActionListener(e -> viewRecords());
         buttonPanel.add(viewRecordsButton);
         
+        settleUpButton = new JButton("Settle Up");
+        settleUpButton.addActionListener(e -> showSettlement());
+        buttonPanel.add(settleUpButton);
+        
+        reportsButton = new JButton("Reports");
+        reportsButton.addActionListener(e -> showReports());
+        buttonPanel.add(reportsButton);
+        
         clearButton = new JButton("Clear");
         clearButton.addActionListener(e -> clearForm());
         buttonPanel.add(clearButton);
@@ -102,54 +172,223 @@ public class ExpenseSplitter extends JFrame {
         
         // Initialize name fields list
         nameFields = new ArrayList<>();
+        shareFields = new ArrayList<>();
         
         setLocationRelativeTo(null);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                // Runs after the paint queued by showing the window
+                SwingUtilities.invokeLater(() -> System.out.println(String.format(
+                        "First frame after %d ms (%d ms since JVM start).",
+                        (System.nanoTime() - LAUNCH_NANOS) / 1_000_000,
+                        ManagementFactory.getRuntimeMXBean().getUptime())));
+            }
+        });
         setVisible(true);
+        
+        // The window is usable for typing while the database opens
+        initializeDatabase();
     }
     
+    // Reads the group registry in the background, then opens the starting group: the
+    // one named by --group, or General. The buttons that need the ledger stay disabled
+    // until it is ready.
     private void initializeDatabase() {
-        try {
-            // Load SQLite JDBC driver
-            Class.forName("org.sqlite.JDBC");
-            
-            // Create a connection to the database
-            connection = DriverManager.getConnection("jdbc:sqlite:expenses.db");
-            System.out.println("Connected to SQLite database.");
-            
-            // Create tables if they don't exist
-            createTables();
-            
-        } catch (ClassNotFoundException | SQLException e) {
-            e.printStackTrace();
+        setLedgerEnabled(false);
+        showStatus("Opening the ledger...");
+        Consumer<Throwable> failed = error -> {
+            error.printStackTrace();
+            showStatus("The ledger could not be opened.");
             JOptionPane.showMessageDialog(this, 
-                "Database connection failed: " + e.getMessage(), 
+                "Database connection failed: " + error.getMessage(), 
                 "Database Error", 
                 JOptionPane.ERROR_MESSAGE);
+        };
+        AsyncExpenseStore.onEdt(AsyncExpenseStore.submit(ledgerExecutor, () -> ExpenseGroups.open(ExpenseGroups.REGISTRY_URL)), 
+            opened -> {
+                groups = opened;
+                if (closed) {
+                    closeGroups();
+                    return;
+                }
+                AsyncExpenseStore.onEdt(AsyncExpenseStore.submit(ledgerExecutor, () -> {
+                        ExpenseGroups.Group start = groupName == null ? null : opened.find(groupName);
+                        if (start == null && groupName != null) {
+                            System.err.println("There is no group called " + groupName + "; opening " + 
+                                    ExpenseGroups.DEFAULT_GROUP + ".");
+                        }
+                        return start != null ? start : opened.find(ExpenseGroups.DEFAULT_GROUP);
+                    }), 
+                    this::changeGroups, 
+                    failed);
+            }, 
+            failed);
+    }
+    
+    // Closes the ledger that is showing and opens the group's, migrating it and replaying
+    // its journal, in the background
+    private void openGroup(ExpenseGroups.Group target) {
+        setLedgerEnabled(false);
+        showStatus("Opening " + target.name + "...");
+        closeRecordsDialog();
+        ExpenseService previous = service;
+        service = null;
+        group = target;
+        setTitle("Expense Splitter - " + target.name);
+        AsyncExpenseStore.onEdt(AsyncExpenseStore.submit(ledgerExecutor, () -> {
+                if (previous != null) {
+                    close(previous);
+                }
+                return ExpenseService.open(target.databaseUrl());
+            }), 
+            opened -> {
+                if (closed || group != target) {
+                    close(opened);
+                    return;
+                }
+                service = opened;
+                System.out.println(String.format("Opened group %s after %d ms.", target.name,
+                        (System.nanoTime() - LAUNCH_NANOS) / 1_000_000));
+                setLedgerEnabled(true);
+                showStatus(null);
+            }, 
+            error -> {
+                error.printStackTrace();
+                showStatus("The ledger could not be opened.");
+                groupCombo.setEnabled(true);
+                newGroupButton.setEnabled(true);
+                restoreGroupButton.setEnabled(true);
+                JOptionPane.showMessageDialog(this, 
+                    "Database connection failed: " + error.getMessage(), 
+                    "Database Error", 
+                    JOptionPane.ERROR_MESSAGE);
+            });
+    }
+    
+    // Replaces the groups in the combo and selects the given one
+    private void fillGroups(List<ExpenseGroups.Group> active, ExpenseGroups.Group selected) {
+        fillingGroups = true;
+        groupCombo.removeAllItems();
+        for (ExpenseGroups.Group item : active) {
+            groupCombo.addItem(item);
+            if (selected != null && item.id == selected.id) {
+                groupCombo.setSelectedItem(item);
+            }
         }
+        fillingGroups = false;
     }
     
-    private void createTables() throws SQLException {
-        Statement statement = connection.createStatement();
-        
-        // Create expenses table
-        statement.execute("CREATE TABLE IF NOT EXISTS expenses (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                "description TEXT NOT NULL," +
-                "total_amount REAL NOT NULL," +
-                "people_count INTEGER NOT NULL," +
-                "date TEXT NOT NULL" +
-                ")");
-        
-        // Create participants table
-        statement.execute("CREATE TABLE IF NOT EXISTS participants (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                "expense_id INTEGER NOT NULL," +
-                "name TEXT NOT NULL," +
-                "amount REAL NOT NULL," +
-                "FOREIGN KEY (expense_id) REFERENCES expenses(id) ON DELETE CASCADE" +
-                ")");
-        
-        statement.close();
+    private void createGroup() {
+        String name = JOptionPane.showInputDialog(this, "Name of the new group:", "New Group", JOptionPane.PLAIN_MESSAGE);
+        if (name == null) {
+            return;
+        }
+        AsyncExpenseStore.onEdt(AsyncExpenseStore.submit(ledgerExecutor, () -> groups.create(name)), 
+            created -> changeGroups(created), 
+            this::showGroupError);
+    }
+    
+    // Hides the shown group and switches to General; its file is left as it is
+    private void archiveGroup() {
+        ExpenseGroups.Group target = group;
+        if (target == null) {
+            return;
+        }
+        int confirm = JOptionPane.showConfirmDialog(this, 
+            "Archive " + target.name + "? Its expenses are kept, but it is not opened again until it is restored.", 
+            "Archive Group", JOptionPane.YES_NO_OPTION);
+        if (confirm != JOptionPane.YES_OPTION) {
+            return;
+        }
+        AsyncExpenseStore.onEdt(AsyncExpenseStore.submit(ledgerExecutor, () -> {
+                groups.setArchived(target, true);
+                return groups.find(ExpenseGroups.DEFAULT_GROUP);
+            }), 
+            this::changeGroups, 
+            this::showGroupError);
+    }
+    
+    private void restoreGroup() {
+        AsyncExpenseStore.onEdt(AsyncExpenseStore.submit(ledgerExecutor, () -> groups.list(true)), 
+            all -> {
+                List<ExpenseGroups.Group> archived = new ArrayList<>();
+                for (ExpenseGroups.Group item : all) {
+                    if (item.archived) {
+                        archived.add(item);
+                    }
+                }
+                if (archived.isEmpty()) {
+                    JOptionPane.showMessageDialog(this, "There are no archived groups.", 
+                        "Restore Group", JOptionPane.INFORMATION_MESSAGE);
+                    return;
+                }
+                ExpenseGroups.Group chosen = (ExpenseGroups.Group) JOptionPane.showInputDialog(this, 
+                    "Group to restore:", "Restore Group", JOptionPane.PLAIN_MESSAGE, null, 
+                    archived.toArray(), archived.get(0));
+                if (chosen == null) {
+                    return;
+                }
+                AsyncExpenseStore.onEdt(AsyncExpenseStore.submit(ledgerExecutor, () -> {
+                        groups.setArchived(chosen, false);
+                        return groups.find(chosen.name);
+                    }), 
+                    this::changeGroups, 
+                    this::showGroupError);
+            }, 
+            this::showGroupError);
+    }
+    
+    // After the registry changed: reloads the combo and opens the given group
+    private void changeGroups(ExpenseGroups.Group target) {
+        AsyncExpenseStore.onEdt(AsyncExpenseStore.submit(ledgerExecutor, () -> groups.list(false)), 
+            active -> {
+                fillGroups(active, target);
+                openGroup(target);
+            }, 
+            this::showGroupError);
+    }
+    
+    private void showGroupError(Throwable error) {
+        if (error instanceof IllegalArgumentException) {
+            JOptionPane.showMessageDialog(this, error.getMessage(), "Invalid Input", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        error.printStackTrace();
+        JOptionPane.showMessageDialog(this, "Error updating groups: " + error.getMessage(), 
+            "Database Error", JOptionPane.ERROR_MESSAGE);
+    }
+    
+    // The records window shows one group's ledger; a new one is built for the next group
+    private void closeRecordsDialog() {
+        if (recordsDialog != null) {
+            cancelSearch();
+            recordsDialog.dispose();
+            recordsDialog = null;
+        }
+    }
+    
+    private void setLedgerEnabled(boolean enabled) {
+        splitButton.setEnabled(enabled);
+        viewRecordsButton.setEnabled(enabled);
+        settleUpButton.setEnabled(enabled);
+        reportsButton.setEnabled(enabled);
+        groupCombo.setEnabled(enabled);
+        newGroupButton.setEnabled(enabled);
+        archiveGroupButton.setEnabled(enabled && group != null && !group.isGeneral());
+        restoreGroupButton.setEnabled(enabled);
+    }
+    
+    // Shows a message in the result panel, or clears it when message is null
+    private void showStatus(String message) {
+        resultPanel.removeAll();
+        if (message != null) {
+            JLabel statusLabel = new JLabel(message);
+            statusLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
+            resultPanel.add(statusLabel);
+        }
+        resultPanel.revalidate();
+        resultPanel.repaint();
     }
     
     private void generateNameFields() {
@@ -163,18 +402,23 @@ public class ExpenseSplitter extends JFrame {
             // Clear previous fields
             namesPanel.removeAll();
             nameFields.clear();
+            shareFields.clear();
             
-            // Create a panel for names with 2 columns layout
-            JPanel innerPanel = new JPanel(new GridLayout(0, 2, 10, 5));
+            // Create a panel for names and shares with 3 columns layout
+            JPanel innerPanel = new JPanel(new GridLayout(0, 3, 10, 5));
             
             // Generate fields for each person
             for (int i = 1; i <= peopleCount; i++) {
                 JLabel nameLabel = new JLabel("Person " + i + ":");
                 JTextField nameField = new JTextField(15);
+                JTextField shareField = new JTextField(6);
                 innerPanel.add(nameLabel);
                 innerPanel.add(nameField);
+                innerPanel.add(shareField);
                 nameFields.add(nameField);
+                shareFields.add(shareField);
             }
+            enableShareFields(shareFields, splitModeCombo);
             
             namesPanel.add(innerPanel);
             namesPanel.revalidate();
@@ -187,116 +431,243 @@ public class ExpenseSplitter extends JFrame {
     
     private void splitExpense() {
         try {
-            // Validate input
-            String description = descriptionField.getText().trim();
-            if (description.isEmpty()) {
-                JOptionPane.showMessageDialog(this, "Please enter a description.", "Invalid Input", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-            
             double totalAmount = Double.parseDouble(amountField.getText());
-            if (totalAmount <= 0) {
-                JOptionPane.showMessageDialog(this, "Please enter a positive amount.", "Invalid Input", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-            
             int peopleCount = Integer.parseInt(peopleCountField.getText());
             if (peopleCount <= 0) {
                 JOptionPane.showMessageDialog(this, "Please enter a positive number of people.", "Invalid Input", JOptionPane.ERROR_MESSAGE);
                 return;
             }
             
-            // Validate that all names are filled
-            for (JTextField field : nameFields) {
-                if (field.getText().trim().isEmpty()) {
-                    JOptionPane.showMessageDialog(this, "Please fill in all name fields.", "Invalid Input", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < peopleCount && i < nameFields.size(); i++) {
+                names.add(nameFields.get(i).getText());
             }
-            
-            // Calculate split amount
-            double amountPerPerson = totalAmount / peopleCount;
-            
-            // Save to database
-            long expenseId = saveExpense(description, totalAmount, peopleCount);
-            
-            // Update result panel
-            resultPanel.removeAll();
-            
-            JLabel resultLabel = new JLabel("Expense split successfully!");
-            resultLabel.setFont(new Font("Arial", Font.BOLD, 14));
-            resultLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
-            resultPanel.add(resultLabel);
-            resultPanel.add(Box.createRigidArea(new Dimension(0, 10)));
-            
-            JPanel detailsPanel = new JPanel(new GridLayout(0, 1, 5, 5));
-            
-            // Show the details
-            for (int i = 0; i < peopleCount; i++) {
-                String name = nameFields.get(i).getText().trim();
-                JLabel personLabel = new JLabel(name + " should pay: $" + String.format("%.2f", amountPerPerson));
-                detailsPanel.add(personLabel);
-                
-                // Save participant to database
-                saveParticipant(expenseId, name, amountPerPerson);
+            if (names.size() < peopleCount) {
+                JOptionPane.showMessageDialog(this, "Please fill in all name fields.", "Invalid Input", JOptionPane.ERROR_MESSAGE);
+                return;
             }
             
-            resultPanel.add(detailsPanel);
-            resultPanel.revalidate();
-            resultPanel.repaint();
+            // Validate, then show the result as soon as the split is in the journal
+            SplitEngine.Rule rule = readRule(splitModeCombo, shareFields.subList(0, peopleCount));
+            NewExpense expense = ExpenseService.validate(descriptionField.getText(), totalAmount, LocalDate.now(), 
+                    paidByField.getText(), names, rule);
+            splitButton.setEnabled(false);
+            AsyncExpenseStore.onEdt(service.split(expense.description, expense.totalAmount, expense.date, expense.paidBy, expense.names, rule).durable, 
+                journaled -> {
+                    splitButton.setEnabled(true);
+                    showSplitResult(expense);
+                }, 
+                error -> {
+                    splitButton.setEnabled(true);
+                    error.printStackTrace();
+                    JOptionPane.showMessageDialog(this, "Error saving to database: " + error.getMessage(), 
+                            "Database Error", JOptionPane.ERROR_MESSAGE);
+                });
             
         } catch (NumberFormatException e) {
             JOptionPane.showMessageDialog(this, "Please enter valid numbers.", "Invalid Input", JOptionPane.ERROR_MESSAGE);
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error saving to database: " + e.getMessage(), 
-                    "Database Error", JOptionPane.ERROR_MESSAGE);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Invalid Input", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
+    // The value fields only mean something when the split is not even
+    private static void enableShareFields(List<JTextField> fields, JComboBox<SplitEngine.Mode> modeCombo) {
+        boolean enabled = modeCombo.getSelectedItem() != SplitEngine.Mode.EQUAL;
+        for (JTextField field : fields) {
+            field.setEnabled(enabled);
         }
     }
     
-    private long saveExpense(String description, double totalAmount, int peopleCount) throws SQLException {
-        // Get current date in YYYY-MM-DD format
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        String currentDate = dateFormat.format(new Date());
+    // The split chosen in the combo, with one value per person read from the fields
+    private static SplitEngine.Rule readRule(JComboBox<SplitEngine.Mode> modeCombo, List<JTextField> fields) {
+        SplitEngine.Mode mode = (SplitEngine.Mode) modeCombo.getSelectedItem();
+        if (mode == SplitEngine.Mode.EQUAL) {
+            return SplitEngine.Rule.EQUAL;
+        }
+        double[] values = new double[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                values[i] = Double.parseDouble(fields.get(i).getText().trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Please enter a number for every person's " +
+                        (mode == SplitEngine.Mode.SHARES ? "share." : mode == SplitEngine.Mode.PERCENT ? "percentage." : "amount."));
+            }
+        }
+        return new SplitEngine.Rule(mode, values);
+    }
+    
+    private void showSplitResult(NewExpense expense) {
+        // Update result panel
+        resultPanel.removeAll();
         
-        String sql = "INSERT INTO expenses (description, total_amount, people_count, date) VALUES (?, ?, ?, ?)";
-        PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-        pstmt.setString(1, description);
-        pstmt.setDouble(2, totalAmount);
-        pstmt.setInt(3, peopleCount);
-        pstmt.setString(4, currentDate);
+        JLabel resultLabel = new JLabel("Expense split successfully!");
+        resultLabel.setFont(new Font("Arial", Font.BOLD, 14));
+        resultLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
+        resultPanel.add(resultLabel);
+        resultPanel.add(Box.createRigidArea(new Dimension(0, 10)));
         
-        pstmt.executeUpdate();
+        JPanel detailsPanel = new JPanel(new GridLayout(0, 1, 5, 5));
         
-        // Get the generated expense ID
-        ResultSet rs = pstmt.getGeneratedKeys();
-        long expenseId = -1;
-        if (rs.next()) {
-            expenseId = rs.getLong(1);
+        // Show the details
+        for (int i = 0; i < expense.names.size(); i++) {
+            JLabel personLabel = new JLabel(expense.names.get(i) + " should pay " + expense.paidBy + ": $" + 
+                    String.format("%.2f", expense.share(i)));
+            detailsPanel.add(personLabel);
         }
-        rs.close();
-        pstmt.close();
         
-        return expenseId;
+        resultPanel.add(detailsPanel);
+        resultPanel.revalidate();
+        resultPanel.repaint();
     }
     
-    private void saveParticipant(long expenseId, String name, double amount) throws SQLException {
-        String sql = "INSERT INTO participants (expense_id, name, amount) VALUES (?, ?, ?)";
-        PreparedStatement pstmt = connection.prepareStatement(sql);
-        pstmt.setLong(1, expenseId);
-        pstmt.setString(2, name);
-        pstmt.setDouble(3, amount);
-        
-        pstmt.executeUpdate();
-        pstmt.close();
+    // Shows who has to pay whom to settle every recorded expense
+    private void showSettlement() {
+        settleUpButton.setEnabled(false);
+        AsyncExpenseStore.onEdt(service.settle(), 
+            transfers -> {
+                settleUpButton.setEnabled(true);
+                
+                String[] columns = {"From", "To", "Amount"};
+                Object[][] rows = new Object[transfers.size()][];
+                for (int i = 0; i < transfers.size(); i++) {
+                    Settlement.Transfer transfer = transfers.get(i);
+                    rows[i] = new Object[] {transfer.from, transfer.to, String.format("$%.2f", transfer.cents / 100.0)};
+                }
+                
+                JTable transfersTable = new JTable(rows, columns);
+                transfersTable.setEnabled(false);
+                JScrollPane scrollPane = new JScrollPane(transfersTable);
+                scrollPane.setPreferredSize(new Dimension(400, 250));
+                
+                JOptionPane.showMessageDialog(this, 
+                    transfers.isEmpty() ? "Everyone is settled up." : scrollPane, 
+                    "Settle Up", JOptionPane.INFORMATION_MESSAGE);
+            }, 
+            error -> {
+                settleUpButton.setEnabled(true);
+                error.printStackTrace();
+                JOptionPane.showMessageDialog(this, "Error loading balances: " + error.getMessage(), 
+                    "Database Error", JOptionPane.ERROR_MESSAGE);
+            });
+    }
+    
+    // Spend per month and each person's totals per month, read from the rollup tables
+    private void showReports() {
+        reportsButton.setEnabled(false);
+        AsyncExpenseStore.onEdt(service.loadMonthTotals(), 
+            months -> {
+                reportsButton.setEnabled(true);
+                
+                JDialog reportDialog = new JDialog(this, "Reports", false);
+                reportDialog.setSize(700, 500);
+                reportDialog.setLayout(new BorderLayout(10, 10));
+                
+                // Spend per month
+                Object[][] monthRows = new Object[months.size()][];
+                for (int i = 0; i < months.size(); i++) {
+                    Rollups.MonthTotal total = months.get(i);
+                    monthRows[i] = new Object[] {Rollups.formatMonth(total.month), total.expenseCount, 
+                            String.format("$%.2f", total.totalCents / 100.0)};
+                }
+                JTable monthsTable = new JTable(monthRows, new String[] {"Month", "Expenses", "Total Spent"});
+                monthsTable.setEnabled(false);
+                
+                // Per person, for the month picked in the combo box
+                JComboBox<String> monthCombo = new JComboBox<>();
+                monthCombo.addItem("All months");
+                for (Rollups.MonthTotal total : months) {
+                    monthCombo.addItem(Rollups.formatMonth(total.month));
+                }
+                javax.swing.table.DefaultTableModel peopleModel = new javax.swing.table.DefaultTableModel(
+                        new String[] {"Month", "Name", "Shares", "Owed", "Paid", "Net"}, 0);
+                JTable peopleTable = new JTable(peopleModel);
+                peopleTable.setEnabled(false);
+                List<List<Rollups.PersonMonthTotal>> shownPeople = new ArrayList<>();
+                shownPeople.add(Collections.emptyList());
+                
+                Runnable loadPeople = () -> {
+                    int selected = monthCombo.getSelectedIndex();
+                    Integer month = selected > 0 ? months.get(selected - 1).month : null;
+                    AsyncExpenseStore.onEdt(service.loadPersonMonthTotals(month), 
+                        people -> {
+                            shownPeople.set(0, people);
+                            peopleModel.setRowCount(0);
+                            for (Rollups.PersonMonthTotal total : people) {
+                                peopleModel.addRow(new Object[] {Rollups.formatMonth(total.month), total.name, total.shareCount, 
+                                        String.format("$%.2f", total.owedCents / 100.0), 
+                                        String.format("$%.2f", total.paidCents / 100.0), 
+                                        String.format("$%.2f", (total.paidCents - total.owedCents) / 100.0)});
+                            }
+                        }, 
+                        error -> {
+                            error.printStackTrace();
+                            JOptionPane.showMessageDialog(reportDialog, "Error loading report: " + error.getMessage(), 
+                                "Database Error", JOptionPane.ERROR_MESSAGE);
+                        });
+                };
+                monthCombo.addActionListener(e -> loadPeople.run());
+                loadPeople.run();
+                
+                JPanel peoplePanel = new JPanel(new BorderLayout(5, 5));
+                JPanel monthPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 5));
+                monthPanel.add(new JLabel("Month:"));
+                monthPanel.add(monthCombo);
+                peoplePanel.add(monthPanel, BorderLayout.NORTH);
+                peoplePanel.add(new JScrollPane(peopleTable), BorderLayout.CENTER);
+                
+                JTabbedPane tabs = new JTabbedPane();
+                tabs.addTab("Spend per Month", new JScrollPane(monthsTable));
+                tabs.addTab("Per Person", peoplePanel);
+                reportDialog.add(tabs, BorderLayout.CENTER);
+                
+                // Export the table in the selected tab as CSV
+                JPanel buttonsPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 10));
+                JButton exportButton = new JButton("Export CSV...");
+                exportButton.addActionListener(e -> {
+                    JFileChooser chooser = new JFileChooser();
+                    if (chooser.showSaveDialog(reportDialog) != JFileChooser.APPROVE_OPTION) {
+                        return;
+                    }
+                    try (java.io.Writer out = java.nio.file.Files.newBufferedWriter(chooser.getSelectedFile().toPath())) {
+                        if (tabs.getSelectedIndex() == 0) {
+                            LedgerCsv.writeMonthTotals(months, out);
+                        } else {
+                            LedgerCsv.writePersonMonthTotals(shownPeople.get(0), out);
+                        }
+                    } catch (java.io.IOException ex) {
+                        ex.printStackTrace();
+                        JOptionPane.showMessageDialog(reportDialog, "Error exporting report: " + ex.getMessage(), 
+                            "Export Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                });
+                buttonsPanel.add(exportButton);
+                
+                JButton closeButton = new JButton("Close");
+                closeButton.addActionListener(e -> reportDialog.dispose());
+                buttonsPanel.add(closeButton);
+                reportDialog.add(buttonsPanel, BorderLayout.SOUTH);
+                
+                reportDialog.setLocationRelativeTo(this);
+                reportDialog.setVisible(true);
+            }, 
+            error -> {
+                reportsButton.setEnabled(true);
+                error.printStackTrace();
+                JOptionPane.showMessageDialog(this, "Error loading report: " + error.getMessage(), 
+                    "Database Error", JOptionPane.ERROR_MESSAGE);
+            });
     }
     
     private void clearForm() {
         descriptionField.setText("");
         amountField.setText("");
+        paidByField.setText("");
         peopleCountField.setText("");
+        splitModeCombo.setSelectedItem(SplitEngine.Mode.EQUAL);
         namesPanel.removeAll();
         nameFields.clear();
+        shareFields.clear();
         namesPanel.revalidate();
         namesPanel.repaint();
         
@@ -318,9 +689,30 @@ public class ExpenseSplitter extends JFrame {
             searchField = new JTextField(20);
             searchPanel.add(searchField);
             
-            searchTypeCombo = new JComboBox<>(new String[]{"Name", "Date (YYYY-MM-DD)"});
+            searchTypeCombo = new JComboBox<>(new String[]{"Name", "Description", "Date or Range (FROM..TO)"});
             searchPanel.add(searchTypeCombo);
             
+            // Search as the user types, once typing pauses
+            searchTimer = new javax.swing.Timer(SEARCH_DELAY_MS, e -> liveSearch());
+            searchTimer.setRepeats(false);
+            searchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+                @Override
+                public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                    searchTimer.restart();
+                }
+                
+                @Override
+                public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                    searchTimer.restart();
+                }
+                
+                @Override
+                public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                    searchTimer.restart();
+                }
+            });
+            searchTypeCombo.addActionListener(e -> searchTimer.restart());
+            
             JButton searchButton = new JButton("Search");
             searchButton.addActionListener(e -> filterRecords());
             searchPanel.add(searchButton);
@@ -331,25 +723,28 @@ public class ExpenseSplitter extends JFrame {
             
             recordsDialog.add(searchPanel, BorderLayout.NORTH);
             
-            // Create table model
-            String[] columns = {"ID", "Date", "Description", "Total Amount", "People", "Names", "Amount Per Person"};
-            tableModel = new DefaultTableModel(columns, 0) {
-                @Override
-                public boolean isCellEditable(int row, int column) {
-                    return false;
-                }
-            };
+            // Create table model; rows are loaded page by page as they scroll into view
+            tableModel = new ExpenseTableModel(service.store(), error -> {
+                error.printStackTrace();
+                JOptionPane.showMessageDialog(recordsDialog, 
+                    "Error loading records: " + error.getMessage(), 
+                    "Database Error", 
+                    JOptionPane.ERROR_MESSAGE);
+            });
             
             recordsTable = new JTable(tableModel);
-            recordsTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            ExpenseTableModel.installRenderers(recordsTable);
+            // Several rows can be selected for deletion; edit works on the first
+            recordsTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
             recordsTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
             recordsTable.getColumnModel().getColumn(0).setPreferredWidth(40);
             recordsTable.getColumnModel().getColumn(1).setPreferredWidth(100);
             recordsTable.getColumnModel().getColumn(2).setPreferredWidth(150);
             recordsTable.getColumnModel().getColumn(3).setPreferredWidth(100);
-            recordsTable.getColumnModel().getColumn(4).setPreferredWidth(60);
-            recordsTable.getColumnModel().getColumn(5).setPreferredWidth(200);
-            recordsTable.getColumnModel().getColumn(6).setPreferredWidth(120);
+            recordsTable.getColumnModel().getColumn(4).setPreferredWidth(100);
+            recordsTable.getColumnModel().getColumn(5).setPreferredWidth(60);
+            recordsTable.getColumnModel().getColumn(6).setPreferredWidth(200);
+            recordsTable.getColumnModel().getColumn(7).setPreferredWidth(120);
             
             JScrollPane tableScrollPane = new JScrollPane(recordsTable);
             recordsDialog.add(tableScrollPane, BorderLayout.CENTER);
@@ -361,7 +756,7 @@ public class ExpenseSplitter extends JFrame {
             editButton.addActionListener(e -> editRecord());
             buttonsPanel.add(editButton);
             
-            deleteButton = new JButton("Delete Record");
+            deleteButton = new JButton("Delete Records");
             deleteButton.addActionListener(e -> deleteRecord());
             buttonsPanel.add(deleteButton);
             
@@ -372,6 +767,9 @@ public class ExpenseSplitter extends JFrame {
             recordsDialog.add(buttonsPanel, BorderLayout.SOUTH);
             
             recordsDialog.setLocationRelativeTo(this);
+            
+            // Build the in-memory search index in the background; searches use SQL until it is ready
+            service.searchIndex();
         }
         
         // Load all records
@@ -382,175 +780,125 @@ public class ExpenseSplitter extends JFrame {
     }
     
     private void loadAllRecords() {
-        try {
-            // Clear existing data
-            tableModel.setRowCount(0);
-            
-            // Query to get all expenses with their participants
-            String sql = "SELECT e.id, e.date, e.description, e.total_amount, e.people_count " +
-                         "FROM expenses e ORDER BY e.date DESC";
-            
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
-            
-            while (rs.next()) {
-                long expenseId = rs.getLong("id");
-                String date = rs.getString("date");
-                String description = rs.getString("description");
-                double totalAmount = rs.getDouble("total_amount");
-                int peopleCount = rs.getInt("people_count");
-                
-                // Get participants for this expense
-                String participantsSql = "SELECT name, amount FROM participants WHERE expense_id = ?";
-                PreparedStatement pstmt = connection.prepareStatement(participantsSql);
-                pstmt.setLong(1, expenseId);
-                ResultSet participantsRs = pstmt.executeQuery();
-                
-                StringBuilder namesBuilder = new StringBuilder();
-                double amountPerPerson = 0;
-                
-                while (participantsRs.next()) {
-                    String name = participantsRs.getString("name");
-                    amountPerPerson = participantsRs.getDouble("amount");
-                    
-                    if (namesBuilder.length() > 0) {
-                        namesBuilder.append(", ");
-                    }
-                    namesBuilder.append(name);
-                }
-                
-                participantsRs.close();
-                pstmt.close();
-                
-                // Add record to table
-                Object[] row = {
-                    expenseId,
-                    date,
-                    description,
-                    String.format("$%.2f", totalAmount),
-                    peopleCount,
-                    namesBuilder.toString(),
-                    String.format("$%.2f", amountPerPerson)
-                };
-                
-                tableModel.addRow(row);
-            }
-            
-            rs.close();
-            stmt.close();
-            
-            if (searchField != null) {
-                searchField.setText("");
-            }
-            
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(recordsDialog, 
-                "Error loading records: " + e.getMessage(), 
-                "Database Error", 
-                JOptionPane.ERROR_MESSAGE);
+        if (searchField != null) {
+            searchField.setText("");
         }
+        cancelSearch();
+        
+        tableModel.setFilter(RecordFilter.ALL);
     }
     
+    // Search button: runs the search now and reports a date that does not parse
     private void filterRecords() {
         String searchText = searchField.getText().trim();
-        String searchType = (String) searchTypeCombo.getSelectedItem();
-        
         if (searchText.isEmpty()) {
             loadAllRecords();
             return;
         }
         
-        try {
-            tableModel.setRowCount(0);
-            
-            String sql;
-            PreparedStatement pstmt;
-            
-            if ("Name".equals(searchType)) {
-                // Search by participant name
-                sql = "SELECT DISTINCT e.id, e.date, e.description, e.total_amount, e.people_count " +
-                      "FROM expenses e JOIN participants p ON e.id = p.expense_id " +
-                      "WHERE p.name LIKE ? ORDER BY e.date DESC";
-                      
-                pstmt = connection.prepareStatement(sql);
-                pstmt.setString(1, "%" + searchText + "%");
-            } else {
-                // Search by date
-                sql = "SELECT e.id, e.date, e.description, e.total_amount, e.people_count " +
-                      "FROM expenses e WHERE e.date LIKE ? ORDER BY e.date DESC";
-                      
-                pstmt = connection.prepareStatement(sql);
-                pstmt.setString(1, "%" + searchText + "%");
+        if ("date".equals(searchField()) && DateRange.parse(searchText) == null) {
+            cancelSearch();
+            JOptionPane.showMessageDialog(recordsDialog, 
+                "Enter a date as YYYY-MM-DD, YYYY-MM or YYYY, or a range such as 2024-01..2024-03.", 
+                "Invalid Input", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        liveSearch();
+    }
+    
+    private String searchField() {
+        String searchType = (String) searchTypeCombo.getSelectedItem();
+        return "Name".equals(searchType) ? SearchIndex.NAME 
+                : "Description".equals(searchType) ? SearchIndex.DESCRIPTION : "date";
+    }
+    
+    private void cancelSearch() {
+        if (searchTimer != null) {
+            searchTimer.stop();
+        }
+        if (pendingSearch != null) {
+            pendingSearch.cancel(true);
+            pendingSearch = null;
+        }
+    }
+    
+    // Shows the records matching the search text. Names and descriptions are matched in
+    // the in-memory index once it is built, and a newer search cancels an older one. A
+    // date that does not parse yet, e.g. while still being typed, leaves the table as is.
+    private void liveSearch() {
+        cancelSearch();
+        String searchText = searchField.getText().trim();
+        String field = searchField();
+        
+        if (searchText.isEmpty()) {
+            tableModel.setFilter(RecordFilter.ALL);
+        } else if ("date".equals(field)) {
+            DateRange range = DateRange.parse(searchText);
+            if (range != null) {
+                tableModel.setFilter(RecordFilter.dateBetween(range));
             }
-            
-            ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                long expenseId = rs.getLong("id");
-                String date = rs.getString("date");
-                String description = rs.getString("description");
-                double totalAmount = rs.getDouble("total_amount");
-                int peopleCount = rs.getInt("people_count");
-                
-                // Get participants for this expense
-                String participantsSql = "SELECT name, amount FROM participants WHERE expense_id = ?";
-                PreparedStatement pstmt2 = connection.prepareStatement(participantsSql);
-                pstmt2.setLong(1, expenseId);
-                ResultSet participantsRs = pstmt2.executeQuery();
-                
-                StringBuilder namesBuilder = new StringBuilder();
-                double amountPerPerson = 0;
-                
-                while (participantsRs.next()) {
-                    String name = participantsRs.getString("name");
-                    amountPerPerson = participantsRs.getDouble("amount");
-                    
-                    if (namesBuilder.length() > 0) {
-                        namesBuilder.append(", ");
+        } else if (!service.isSearchIndexReady()) {
+            tableModel.setFilter(ExpenseService.filter(field, searchText));
+        } else {
+            CompletableFuture<long[]> search = service.search(field, searchText);
+            pendingSearch = search;
+            AsyncExpenseStore.onEdt(search, 
+                ids -> {
+                    if (pendingSearch == search) {
+                        pendingSearch = null;
+                        tableModel.setIds(ids);
                     }
-                    namesBuilder.append(name);
-                }
-                
-                participantsRs.close();
-                pstmt2.close();
-                
-                // Add record to table
-                Object[] row = {
-                    expenseId,
-                    date,
-                    description,
-                    String.format("$%.2f", totalAmount),
-                    peopleCount,
-                    namesBuilder.toString(),
-                    String.format("$%.2f", amountPerPerson)
-                };
-                
-                tableModel.addRow(row);
-            }
-            
-            rs.close();
-            pstmt.close();
-            
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(recordsDialog, 
-                "Error filtering records: " + e.getMessage(), 
-                "Database Error", 
-                JOptionPane.ERROR_MESSAGE);
+                }, 
+                error -> {
+                    error.printStackTrace();
+                    JOptionPane.showMessageDialog(recordsDialog, "Error searching records: " + error.getMessage(), 
+                        "Search Error", JOptionPane.ERROR_MESSAGE);
+                });
+        }
+    }
+    
+    // Reloads the table after a change; a search result is searched again, since the
+    // change may have added or removed matches
+    private void refreshRecords() {
+        if (tableModel.isShowingIds()) {
+            liveSearch();
+        } else {
+            tableModel.refresh();
         }
     }
     
+    // Id of the expense in the given row; the row is on screen, so its page is loaded
+    private long selectedExpenseId(int row) {
+        ExpenseRecord record = tableModel.getRecord(row);
+        return record != null ? record.id : -1;
+    }
+    
+    // Deletes every selected record in one transaction
     private void deleteRecord() {
-        int selectedRow = recordsTable.getSelectedRow();
-        if (selectedRow == -1) {
+        int[] selectedRows = recordsTable.getSelectedRows();
+        if (selectedRows.length == 0) {
             JOptionPane.showMessageDialog(recordsDialog, "Please select a record to delete.", 
                 "No Selection", JOptionPane.WARNING_MESSAGE);
             return;
         }
         
+        // Rows still loading have no id yet and are left alone
+        long[] expenseIds = new long[selectedRows.length];
+        int count = 0;
+        for (int row : selectedRows) {
+            long expenseId = selectedExpenseId(row);
+            if (expenseId != -1) {
+                expenseIds[count++] = expenseId;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        long[] ids = Arrays.copyOf(expenseIds, count);
+        
         int confirm = JOptionPane.showConfirmDialog(recordsDialog, 
-            "Are you sure you want to delete this expense record?", 
+            ids.length == 1 ? "Are you sure you want to delete this expense record?" 
+                            : "Are you sure you want to delete these " + ids.length + " expense records?", 
             "Confirm Deletion", 
             JOptionPane.YES_NO_OPTION);
             
@@ -558,29 +906,26 @@ public class ExpenseSplitter extends JFrame {
             return;
         }
         
-        long expenseId = (long) tableModel.getValueAt(selectedRow, 0);
-        
-        try {
-            // Delete the expense (cascade will delete participants)
-            String sql = "DELETE FROM expenses WHERE id = ?";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setLong(1, expenseId);
-            pstmt.executeUpdate();
-            pstmt.close();
-            
-            // Refresh the table
-            loadAllRecords();
-            
-            JOptionPane.showMessageDialog(recordsDialog, "Record deleted successfully!", 
-                "Success", JOptionPane.INFORMATION_MESSAGE);
+        deleteButton.setEnabled(false);
+        AsyncExpenseStore.onEdt(service.deleteExpenses(ids), 
+            rows -> {
+                deleteButton.setEnabled(true);
+                recordsTable.clearSelection();
+                // Refresh the table
+                refreshRecords();
                 
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(recordsDialog, 
-                "Error deleting record: " + e.getMessage(), 
-                "Database Error", 
-                JOptionPane.ERROR_MESSAGE);
-        }
+                JOptionPane.showMessageDialog(recordsDialog, 
+                    ids.length == 1 ? "Record deleted successfully!" : ids.length + " records deleted successfully!", 
+                    "Success", JOptionPane.INFORMATION_MESSAGE);
+            }, 
+            error -> {
+                deleteButton.setEnabled(true);
+                error.printStackTrace();
+                JOptionPane.showMessageDialog(recordsDialog, 
+                    "Error deleting records: " + error.getMessage(), 
+                    "Database Error", 
+                    JOptionPane.ERROR_MESSAGE);
+            });
     }
     
     private void editRecord() {
@@ -591,53 +936,35 @@ public class ExpenseSplitter extends JFrame {
             return;
         }
         
-        long expenseId = (long) tableModel.getValueAt(selectedRow, 0);
+        long expenseId = selectedExpenseId(selectedRow);
+        if (expenseId == -1) {
+            return;
+        }
         
-        try {
-            // Get expense details
-            String sql = "SELECT description, total_amount, people_count, date FROM expenses WHERE id = ?";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setLong(1, expenseId);
-            ResultSet rs = pstmt.executeQuery();
-            
-            if (rs.next()) {
-                String description = rs.getString("description");
-                double totalAmount = rs.getDouble("total_amount");
-                int peopleCount = rs.getInt("people_count");
-                String date = rs.getString("date");
-                
-                // Get participants
-                String participantsSql = "SELECT id, name FROM participants WHERE expense_id = ?";
-                PreparedStatement pstmt2 = connection.prepareStatement(participantsSql);
-                pstmt2.setLong(1, expenseId);
-                ResultSet participantsRs = pstmt2.executeQuery();
-                
-                List<String> names = new ArrayList<>();
-                while (participantsRs.next()) {
-                    names.add(participantsRs.getString("name"));
+        AsyncExpenseStore.onEdt(service.findExpense(expenseId), 
+            record -> {
+                if (record != null) {
+                    // Create edit dialog
+                    showEditDialog(expenseId, record);
                 }
-                
-                participantsRs.close();
-                pstmt2.close();
-                
-                // Create edit dialog
-                showEditDialog(expenseId, description, totalAmount, peopleCount, date, names);
-            }
-            
-            rs.close();
-            pstmt.close();
-            
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(recordsDialog, 
-                "Error retrieving record details: " + e.getMessage(), 
-                "Database Error", 
-                JOptionPane.ERROR_MESSAGE);
-        }
+            }, 
+            error -> {
+                error.printStackTrace();
+                JOptionPane.showMessageDialog(recordsDialog, 
+                    "Error retrieving record details: " + error.getMessage(), 
+                    "Database Error", 
+                    JOptionPane.ERROR_MESSAGE);
+            });
     }
     
-    private void showEditDialog(long expenseId, String description, double totalAmount, 
-                               int peopleCount, String date, List<String> names) {
+    private void showEditDialog(long expenseId, ExpenseRecord record) {
+        String description = record.description;
+        double totalAmount = record.totalAmount;
+        int peopleCount = record.peopleCount;
+        LocalDate date = record.date;
+        String paidBy = record.paidBy;
+        List<String> names = record.names;
+        
         JDialog editDialog = new JDialog(recordsDialog, "Edit Expense", true);
         editDialog.setSize(500, 400);
         editDialog.setLayout(new BorderLayout(10, 10));
@@ -647,7 +974,7 @@ public class ExpenseSplitter extends JFrame {
         formPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
         
         // Fields
-        JPanel fieldsPanel = new JPanel(new GridLayout(4, 2, 10, 10));
+        JPanel fieldsPanel = new JPanel(new GridLayout(6, 2, 10, 10));
         
         fieldsPanel.add(new JLabel("Description:"));
         JTextField descField = new JTextField(description);
@@ -658,30 +985,46 @@ public class ExpenseSplitter extends JFrame {
         fieldsPanel.add(amountField);
         
         fieldsPanel.add(new JLabel("Date (YYYY-MM-DD):"));
-        JTextField dateField = new JTextField(date);
+        JTextField dateField = new JTextField(date.toString());
         fieldsPanel.add(dateField);
         
+        fieldsPanel.add(new JLabel("Paid By:"));
+        JTextField paidByField = new JTextField(paidBy != null ? paidBy : "");
+        fieldsPanel.add(paidByField);
+        
         fieldsPanel.add(new JLabel("Number of People:"));
         JTextField countField = new JTextField(String.valueOf(peopleCount));
         countField.setEditable(false);  // Can't change number of people in edit mode
         fieldsPanel.add(countField);
         
+        // An uneven split opens as exact amounts so saving keeps everyone's share
+        fieldsPanel.add(new JLabel("Split:"));
+        JComboBox<SplitEngine.Mode> modeCombo = new JComboBox<>(SplitEngine.Mode.values());
+        modeCombo.setSelectedItem(Double.isNaN(record.amountPerPerson) ? SplitEngine.Mode.EXACT : SplitEngine.Mode.EQUAL);
+        fieldsPanel.add(modeCombo);
+        
         formPanel.add(fieldsPanel);
         formPanel.add(Box.createRigidArea(new Dimension(0, 10)));
         
         // Names panel
-        JPanel namesPanel = new JPanel(new GridLayout(0, 2, 10, 5));
+        JPanel namesPanel = new JPanel(new GridLayout(0, 3, 10, 5));
         namesPanel.setBorder(BorderFactory.createTitledBorder("People Names"));
         
         List<JTextField> nameFields = new ArrayList<>();
+        List<JTextField> shareFields = new ArrayList<>();
         
         for (int i = 0; i < peopleCount; i++) {
             JLabel nameLabel = new JLabel("Person " + (i + 1) + ":");
             JTextField nameField = new JTextField(names.size() > i ? names.get(i) : "");
+            JTextField shareField = new JTextField(names.size() > i ? String.format("%.2f", record.share(i)) : "");
             namesPanel.add(nameLabel);
             namesPanel.add(nameField);
+            namesPanel.add(shareField);
             nameFields.add(nameField);
+            shareFields.add(shareField);
         }
+        enableShareFields(shareFields, modeCombo);
+        modeCombo.addActionListener(e -> enableShareFields(shareFields, modeCombo));
         
         JScrollPane namesScrollPane = new JScrollPane(namesPanel);
         namesScrollPane.setPreferredSize(new Dimension(400, 150));
@@ -694,62 +1037,57 @@ public class ExpenseSplitter extends JFrame {
         
         JButton saveButton = new JButton("Save Changes");
         saveButton.addActionListener(e -> {
+            double newAmount;
             try {
-                // Validate input
-                String newDesc = descField.getText().trim();
-                if (newDesc.isEmpty()) {
-                    JOptionPane.showMessageDialog(editDialog, "Description cannot be empty.", 
-                        "Invalid Input", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-                
-                double newAmount;
-                try {
-                    newAmount = Double.parseDouble(amountField.getText());
-                    if (newAmount <= 0) {
-                        JOptionPane.showMessageDialog(editDialog, "Amount must be positive.", 
-                            "Invalid Input", JOptionPane.ERROR_MESSAGE);
-                        return;
-                    }
-                } catch (NumberFormatException ex) {
-                    JOptionPane.showMessageDialog(editDialog, "Invalid amount format.", 
-                        "Invalid Input", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-                
-                String newDate = dateField.getText().trim();
-                // Validate date format
-                try {
-                    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-                    dateFormat.setLenient(false);
-                    dateFormat.parse(newDate);
-                } catch (ParseException ex) {
-                    JOptionPane.showMessageDialog(editDialog, "Invalid date format. Use YYYY-MM-DD.", 
-                        "Invalid Input", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-                
-                // Validate names
-                for (JTextField field : nameFields) {
-                    if (field.getText().trim().isEmpty()) {
-                        JOptionPane.showMessageDialog(editDialog, "All name fields must be filled.", 
-                            "Invalid Input", JOptionPane.ERROR_MESSAGE);
-                        return;
-                    }
-                }
-                
-                // Update expense in database
-                updateExpense(expenseId, newDesc, newAmount, newDate, nameFields);
-                
-                editDialog.dispose();
-                loadAllRecords();  // Refresh the records table
-                
-            } catch (SQLException ex) {
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(editDialog, 
-                    "Error updating record: " + ex.getMessage(), 
-                    "Database Error", JOptionPane.ERROR_MESSAGE);
+                newAmount = Double.parseDouble(amountField.getText());
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(editDialog, "Invalid amount format.", 
+                    "Invalid Input", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            
+            LocalDate newDate;
+            // Validate date format
+            try {
+                newDate = LocalDate.parse(dateField.getText().trim());
+            } catch (DateTimeParseException ex) {
+                JOptionPane.showMessageDialog(editDialog, "Invalid date format. Use YYYY-MM-DD.", 
+                    "Invalid Input", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            
+            List<String> newNames = new ArrayList<>();
+            for (JTextField field : nameFields) {
+                newNames.add(field.getText());
+            }
+            
+            // Validate the rest and update the expense in the database
+            CompletableFuture<Integer> update;
+            try {
+                update = service.updateExpense(expenseId, descField.getText(), newAmount, newDate, paidByField.getText(), newNames, 
+                        readRule(modeCombo, shareFields));
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(editDialog, ex.getMessage(), 
+                    "Invalid Input", JOptionPane.ERROR_MESSAGE);
+                return;
             }
+            saveButton.setEnabled(false);
+            AsyncExpenseStore.onEdt(update, 
+                rowsChanged -> {
+                    JOptionPane.showMessageDialog(editDialog, rowsChanged == 0 
+                            ? "Nothing changed." 
+                            : "Expense updated successfully! (" + rowsChanged + (rowsChanged == 1 ? " row" : " rows") + " changed)", 
+                        "Success", JOptionPane.INFORMATION_MESSAGE);
+                    editDialog.dispose();
+                    refreshRecords();  // Refresh the records table
+                }, 
+                error -> {
+                    saveButton.setEnabled(true);
+                    error.printStackTrace();
+                    JOptionPane.showMessageDialog(editDialog, 
+                        "Error updating record: " + error.getMessage(), 
+                        "Database Error", JOptionPane.ERROR_MESSAGE);
+                });
         });
         
         buttonPanel.add(saveButton);
@@ -764,100 +1102,67 @@ public class ExpenseSplitter extends JFrame {
         editDialog.setVisible(true);
     }
     
-    private void updateExpense(long expenseId, String description, double totalAmount, 
-                              String date, List<JTextField> nameFields) throws SQLException {
-        connection.setAutoCommit(false);
-        
-        try {
-            // Update expense
-            String sql = "UPDATE expenses SET description = ?, total_amount = ?, date = ? WHERE id = ?";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setString(1, description);
-            pstmt.setDouble(2, totalAmount);
-            pstmt.setString(3, date);
-            pstmt.setLong(4, expenseId);
-            pstmt.executeUpdate();
-            pstmt.close();
-            
-            // Calculate new amount per person
-            double amountPerPerson = totalAmount / nameFields.size();
-            
-            // Get existing participants
-            sql = "SELECT id, name FROM participants WHERE expense_id = ?";
-            PreparedStatement getStmt = connection.prepareStatement(sql);
-            getStmt.setLong(1, expenseId);
-            ResultSet rs = getStmt.executeQuery();
-            
-            List<Long> participantIds = new ArrayList<>();
-            List<String> existingNames = new ArrayList<>();
-            
-            while (rs.next()) {
-                participantIds.add(rs.getLong("id"));
-                existingNames.add(rs.getString("name"));
-            }
-            rs.close();
-            getStmt.close();
-            
-           // Update participants
-           for (int i = 0; i < nameFields.size(); i++) {
-            String name = nameFields.get(i).getText().trim();
-            
-            if (i < participantIds.size()) {
-                // Update existing participant
-                sql = "UPDATE participants SET name = ?, amount = ? WHERE id = ?";
-                PreparedStatement updateStmt = connection.prepareStatement(sql);
-                updateStmt.setString(1, name);
-                updateStmt.setDouble(2, amountPerPerson);
-                updateStmt.setLong(3, participantIds.get(i));
-                updateStmt.executeUpdate();
-                updateStmt.close();
-            } else {
-                // Add new participant if needed (shouldn't happen in this case)
-                sql = "INSERT INTO participants (expense_id, name, amount) VALUES (?, ?, ?)";
-                PreparedStatement insertStmt = connection.prepareStatement(sql);
-                insertStmt.setLong(1, expenseId);
-                insertStmt.setString(2, name);
-                insertStmt.setDouble(3, amountPerPerson);
-                insertStmt.executeUpdate();
-                insertStmt.close();
-            }
-        }
-        
-        // Delete extra participants if needed (shouldn't happen in this case)
-        if (participantIds.size() > nameFields.size()) {
-            for (int i = nameFields.size(); i < participantIds.size(); i++) {
-                sql = "DELETE FROM participants WHERE id = ?";
-                PreparedStatement deleteStmt = connection.prepareStatement(sql);
-                deleteStmt.setLong(1, participantIds.get(i));
-                deleteStmt.executeUpdate();
-                deleteStmt.close();
-            }
-        }
-        
-        connection.commit();
-        JOptionPane.showMessageDialog(null, "Expense updated successfully!", 
-            "Success", JOptionPane.INFORMATION_MESSAGE);
-            
-    } catch (SQLException e) {
-        connection.rollback();
-        throw e;
-    } finally {
-        connection.setAutoCommit(true);
+public void closeConnection() {
+    // A database still opening is closed as soon as it is ready
+    closed = true;
+    if (service != null) {
+        close(service);
     }
+    ledgerExecutor.execute(this::closeGroups);
+    ledgerExecutor.shutdown();
 }
 
-public void closeConnection() {
-    if (connection != null) {
+private void closeGroups() {
+    if (groups != null) {
         try {
-            connection.close();
-            System.out.println("Database connection closed.");
+            groups.close();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 }
 
+private static void close(ExpenseService service) {
+    try {
+        service.close();
+        System.out.println("Database connection closed.");
+    } catch (SQLException e) {
+        e.printStackTrace();
+    }
+}
+
+// The ledger the headless tools work on: the General group unless --group named another
+static String databaseUrl() throws ClassNotFoundException, SQLException {
+    return groupName == null ? DATABASE_URL : ExpenseGroups.databaseUrl(groupName);
+}
+
 public static void main(String[] args) {
+    // --group NAME picks the group for everything below, the window included
+    if (args.length >= 2 && "--group".equals(args[0])) {
+        groupName = args[1];
+        args = Arrays.copyOfRange(args, 2, args.length);
+    }
+    
+    // Headless import/export, maintenance or HTTP server: no window is created
+    if (args.length > 0) {
+        try {
+            if ("--serve".equals(args[0])) {
+                ExpenseServer.run(args);
+            } else if ("--maintain".equals(args[0])) {
+                LedgerMaintenance.run(args);
+            } else {
+                LedgerCsv.run(args);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return;
+    }
+    
     try {
         // Set Look and Feel
         UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
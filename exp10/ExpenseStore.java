@@ -0,0 +1,1142 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+// All SQLite access for the expense splitter. Methods here block on JDBC and must not
+// be called from the Swing event dispatch thread; the UI goes through AsyncExpenseStore.
+// Writes are serialized on this object and use the database's single writer connection;
+// reads borrow pooled read-only connections and can run alongside a write.
+class ExpenseStore {
+    private final ExpenseDatabase database;
+    // The writer connection; only touched while holding this object's lock
+    private final Connection connection;
+    private final DbMetrics metrics = new DbMetrics();
+
+    // Prepared once and reused for the life of the connection
+    private PreparedStatement insertExpenseStmt;
+    private PreparedStatement insertParticipantStmt;
+    private PreparedStatement upsertBalanceStmt;
+    private PreparedStatement upsertMonthStmt;
+    private PreparedStatement upsertPersonMonthStmt;
+    private PreparedStatement selectStoredStmt;
+    private PreparedStatement updateExpenseStmt;
+    private PreparedStatement updateParticipantStmt;
+    private PreparedStatement deleteParticipantStmt;
+
+    ExpenseStore(ExpenseDatabase database) {
+        this.database = database;
+        this.connection = database.writer();
+    }
+
+    // Opens the database at the given JDBC URL and brings its schema up to date
+    static ExpenseStore open(String url) throws ClassNotFoundException, SQLException {
+        ExpenseStore store = new ExpenseStore(ExpenseDatabase.open(url, ExpenseDatabase.DEFAULT_READERS));
+        try {
+            store.migrate();
+        } catch (SQLException | RuntimeException e) {
+            store.database.close();
+            throw e;
+        }
+        store.metrics.register();
+        store.metrics.startReporting();
+        return store;
+    }
+
+    DbMetrics metrics() {
+        return metrics;
+    }
+
+    // Runs one database operation and records its latency and row count, or the failure,
+    // under the given name. A cancelled query is not counted.
+    private <T> T timed(String operation, ToLongFunction<T> rows, SqlWork<T> work) throws SQLException {
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = work.run();
+        } catch (CancellationException e) {
+            throw e;
+        } catch (SQLException | RuntimeException e) {
+            metrics.recordError(operation, System.nanoTime() - start, e);
+            throw e;
+        }
+        metrics.record(operation, System.nanoTime() - start, rows.applyAsLong(result));
+        return result;
+    }
+
+    // Applies any schema migrations the database has not had yet
+    synchronized void migrate() throws SQLException {
+        SchemaMigrations.migrate(connection, Arrays.asList(
+                new SchemaMigrations.Migration("expense and participant tables", this::createBaseTables),
+                new SchemaMigrations.Migration("dates as day numbers", this::migrateTextDates),
+                new SchemaMigrations.Migration("payers", this::addPaidBy),
+                new SchemaMigrations.Migration("lookup indexes", this::createIndexes),
+                new SchemaMigrations.Migration("full-text search index", this::createSearchIndex),
+                new SchemaMigrations.Migration("balances", this::createBalances),
+                new SchemaMigrations.Migration("monthly rollups", this::createRollups),
+                new SchemaMigrations.Migration("journal position", this::createJournalState)));
+
+        // A bulk load that did not finish owes a search index rebuild
+        try (Statement statement = connection.createStatement()) {
+            if (tableExists(statement, "search_index_stale")) {
+                createSearchIndex(statement);
+            }
+        }
+    }
+
+    private void createBaseTables(Statement statement) throws SQLException {
+        // Create expenses table
+        statement.execute("CREATE TABLE IF NOT EXISTS expenses (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "description TEXT NOT NULL," +
+                "total_amount REAL NOT NULL," +
+                "people_count INTEGER NOT NULL," +
+                "date INTEGER NOT NULL," +  // days since 1970-01-01
+                "paid_by TEXT" +
+                ")");
+
+        // Create participants table
+        statement.execute("CREATE TABLE IF NOT EXISTS participants (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "expense_id INTEGER NOT NULL," +
+                "name TEXT NOT NULL," +
+                "amount REAL NOT NULL," +
+                "FOREIGN KEY (expense_id) REFERENCES expenses(id) ON DELETE CASCADE" +
+                ")");
+    }
+
+    private void createIndexes(Statement statement) throws SQLException {
+        // Index the join column so loading records does not scan participants per expense
+        statement.execute("CREATE INDEX IF NOT EXISTS idx_participants_expense_id " +
+                "ON participants(expense_id)");
+
+        // Keyset pagination walks expenses newest first by (date, id)
+        statement.execute("CREATE INDEX IF NOT EXISTS idx_expenses_date " +
+                "ON expenses(date)");
+    }
+
+    // Net balance per person in cents: positive is owed money, negative owes money
+    private void createBalances(Statement statement) throws SQLException {
+        boolean balancesExisted = tableExists(statement, "balances");
+        statement.execute("CREATE TABLE IF NOT EXISTS balances (" +
+                "name TEXT PRIMARY KEY," +
+                "net_cents INTEGER NOT NULL" +
+                ") WITHOUT ROWID");
+        if (!balancesExisted) {
+            rebuildBalances(statement);
+        }
+    }
+
+    // Reporting rollups by month (YYYYMM), kept current by every write like the balances
+    private void createRollups(Statement statement) throws SQLException {
+        boolean rollupsExisted = tableExists(statement, "month_totals");
+        statement.execute("CREATE TABLE IF NOT EXISTS month_totals (" +
+                "month INTEGER PRIMARY KEY," +
+                "expense_count INTEGER NOT NULL," +
+                "total_cents INTEGER NOT NULL" +
+                ")");
+        statement.execute("CREATE TABLE IF NOT EXISTS person_month_totals (" +
+                "month INTEGER NOT NULL," +
+                "name TEXT NOT NULL," +
+                "share_count INTEGER NOT NULL," +
+                "owed_cents INTEGER NOT NULL," +   // sum of this person's shares
+                "paid_cents INTEGER NOT NULL," +   // what others owe them for expenses they paid
+                "PRIMARY KEY (month, name)" +
+                ") WITHOUT ROWID");
+        if (!rollupsExisted) {
+            rebuildRollups(statement);
+        }
+    }
+
+    // Highest write-behind journal sequence already written to the ledger tables
+    private void createJournalState(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS journal_state (" +
+                "id INTEGER PRIMARY KEY CHECK (id = 0)," +
+                "applied_sequence INTEGER NOT NULL" +
+                ")");
+        statement.execute("INSERT OR IGNORE INTO journal_state (id, applied_sequence) VALUES (0, 0)");
+    }
+
+    // Databases from before payers were recorded: the first person listed is taken as the payer
+    private void addPaidBy(Statement statement) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT 1 FROM pragma_table_info('expenses') WHERE name = 'paid_by'")) {
+            if (rs.next()) {
+                return;
+            }
+        }
+        inTransaction(() -> {
+            statement.execute("ALTER TABLE expenses ADD COLUMN paid_by TEXT");
+            statement.execute("UPDATE expenses SET paid_by = (SELECT name FROM participants p " +
+                    "WHERE p.expense_id = expenses.id ORDER BY p.id LIMIT 1)");
+            return null;
+        });
+    }
+
+    // Recomputes every balance from the stored expenses. Only needed when the table is
+    // first created; from then on each write adjusts the balances it affects.
+    private void rebuildBalances(Statement statement) throws SQLException {
+        inTransaction(() -> {
+            statement.execute("DELETE FROM balances");
+            statement.execute("INSERT INTO balances (name, net_cents) " +
+                    "SELECT name, SUM(delta) FROM (" +
+                    "SELECT e.paid_by AS name, CAST(ROUND(p.amount * 100) AS INTEGER) AS delta " +
+                    "FROM participants p JOIN expenses e ON e.id = p.expense_id WHERE e.paid_by IS NOT NULL " +
+                    "UNION ALL " +
+                    "SELECT p.name, -CAST(ROUND(p.amount * 100) AS INTEGER) " +
+                    "FROM participants p JOIN expenses e ON e.id = p.expense_id WHERE e.paid_by IS NOT NULL" +
+                    ") GROUP BY name");
+            return null;
+        });
+    }
+
+    // Fills the rollups from the stored expenses when the tables are first created
+    private void rebuildRollups(Statement statement) throws SQLException {
+        String month = "CAST(strftime('%Y%m', e.date * 86400, 'unixepoch') AS INTEGER)";
+        String cents = "CAST(ROUND(p.amount * 100) AS INTEGER)";
+        inTransaction(() -> {
+            statement.execute("DELETE FROM month_totals");
+            statement.execute("DELETE FROM person_month_totals");
+            statement.execute("INSERT INTO month_totals (month, expense_count, total_cents) " +
+                    "SELECT " + month + ", COUNT(*), SUM(CAST(ROUND(e.total_amount * 100) AS INTEGER)) " +
+                    "FROM expenses e GROUP BY 1");
+            statement.execute("INSERT INTO person_month_totals (month, name, share_count, owed_cents, paid_cents) " +
+                    "SELECT month, name, SUM(shares), SUM(owed), SUM(paid) FROM (" +
+                    "SELECT " + month + " AS month, p.name AS name, 1 AS shares, " + cents + " AS owed, 0 AS paid " +
+                    "FROM participants p JOIN expenses e ON e.id = p.expense_id " +
+                    "UNION ALL " +
+                    "SELECT " + month + ", e.paid_by, 0, 0, " + cents + " " +
+                    "FROM participants p JOIN expenses e ON e.id = p.expense_id WHERE e.paid_by IS NOT NULL" +
+                    ") GROUP BY month, name");
+            return null;
+        });
+    }
+
+    // Databases from before dates were typed store them as YYYY-MM-DD text. The column
+    // type cannot be changed in place, so the table is rebuilt with epoch-day dates.
+    private void migrateTextDates(Statement statement) throws SQLException {
+        String dateType = null;
+        try (ResultSet rs = statement.executeQuery("PRAGMA table_info(expenses)")) {
+            while (rs.next()) {
+                if ("date".equals(rs.getString("name"))) {
+                    dateType = rs.getString("type");
+                }
+            }
+        }
+        if (!"TEXT".equalsIgnoreCase(dateType)) {
+            return;
+        }
+
+        // Dropping the old table would otherwise cascade into participants
+        statement.execute("PRAGMA foreign_keys = OFF");
+        try {
+            migrateTextDatesTable(statement);
+        } finally {
+            statement.execute("PRAGMA foreign_keys = ON");
+        }
+        System.out.println("Migrated expense dates to day numbers.");
+    }
+
+    private void migrateTextDatesTable(Statement statement) throws SQLException {
+        inTransaction(() -> {
+            statement.execute("CREATE TABLE expenses_migrated (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "description TEXT NOT NULL," +
+                    "total_amount REAL NOT NULL," +
+                    "people_count INTEGER NOT NULL," +
+                    "date INTEGER NOT NULL" +
+                    ")");
+            statement.execute("INSERT INTO expenses_migrated (id, description, total_amount, people_count, date) " +
+                    "SELECT id, description, total_amount, people_count, " +
+                    "COALESCE(CAST(julianday(date) - 2440587.5 AS INTEGER), -1) FROM expenses");
+
+            // julianday() rejects single-digit months and days, which the old edit form let through
+            try (Statement legacy = connection.createStatement();
+                 ResultSet rs = legacy.executeQuery("SELECT id, date FROM expenses WHERE julianday(date) IS NULL");
+                 PreparedStatement fix = connection.prepareStatement("UPDATE expenses_migrated SET date = ? WHERE id = ?")) {
+                while (rs.next()) {
+                    fix.setLong(1, parseLegacyDate(rs.getString("date")).toEpochDay());
+                    fix.setLong(2, rs.getLong("id"));
+                    fix.addBatch();
+                }
+                fix.executeBatch();
+            }
+
+            statement.execute("DROP TABLE expenses");
+            statement.execute("ALTER TABLE expenses_migrated RENAME TO expenses");
+            return null;
+        });
+    }
+
+    private static LocalDate parseLegacyDate(String date) throws SQLException {
+        String[] parts = date.trim().split("-");
+        try {
+            return LocalDate.of(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } catch (RuntimeException e) {
+            throw new SQLException("Cannot migrate expense date '" + date + "'", e);
+        }
+    }
+
+    // Trigram full-text indexes over participant names and expense descriptions, kept in
+    // sync with their tables by triggers, so substring search no longer scans every row
+    private void createSearchIndex(Statement statement) throws SQLException {
+        boolean rebuild = !tableExists(statement, "participants_fts") || tableExists(statement, "search_index_stale");
+
+        statement.execute("CREATE VIRTUAL TABLE IF NOT EXISTS participants_fts USING fts5(" +
+                "name, content='participants', content_rowid='id', tokenize='trigram')");
+        statement.execute("CREATE TRIGGER IF NOT EXISTS participants_fts_insert AFTER INSERT ON participants BEGIN " +
+                "INSERT INTO participants_fts(rowid, name) VALUES (new.id, new.name); END");
+        statement.execute("CREATE TRIGGER IF NOT EXISTS participants_fts_delete AFTER DELETE ON participants BEGIN " +
+                "INSERT INTO participants_fts(participants_fts, rowid, name) VALUES ('delete', old.id, old.name); END");
+        statement.execute("CREATE TRIGGER IF NOT EXISTS participants_fts_update AFTER UPDATE OF name ON participants BEGIN " +
+                "INSERT INTO participants_fts(participants_fts, rowid, name) VALUES ('delete', old.id, old.name); " +
+                "INSERT INTO participants_fts(rowid, name) VALUES (new.id, new.name); END");
+
+        statement.execute("CREATE VIRTUAL TABLE IF NOT EXISTS expenses_fts USING fts5(" +
+                "description, content='expenses', content_rowid='id', tokenize='trigram')");
+        statement.execute("CREATE TRIGGER IF NOT EXISTS expenses_fts_insert AFTER INSERT ON expenses BEGIN " +
+                "INSERT INTO expenses_fts(rowid, description) VALUES (new.id, new.description); END");
+        statement.execute("CREATE TRIGGER IF NOT EXISTS expenses_fts_delete AFTER DELETE ON expenses BEGIN " +
+                "INSERT INTO expenses_fts(expenses_fts, rowid, description) VALUES ('delete', old.id, old.description); END");
+        statement.execute("CREATE TRIGGER IF NOT EXISTS expenses_fts_update AFTER UPDATE OF description ON expenses BEGIN " +
+                "INSERT INTO expenses_fts(expenses_fts, rowid, description) VALUES ('delete', old.id, old.description); " +
+                "INSERT INTO expenses_fts(rowid, description) VALUES (new.id, new.description); END");
+
+        // Databases created before the index existed, or left mid bulk load: index the rows already there
+        if (rebuild) {
+            statement.execute("INSERT INTO participants_fts(participants_fts) VALUES ('rebuild')");
+            statement.execute("INSERT INTO expenses_fts(expenses_fts) VALUES ('rebuild')");
+            statement.execute("DROP TABLE IF EXISTS search_index_stale");
+        }
+    }
+
+    private static boolean tableExists(Statement statement, String name) throws SQLException {
+        try (ResultSet rs = statement.executeQuery(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = '" + name + "'")) {
+            return rs.next();
+        }
+    }
+
+    // Bulk loads skip the per-row search index triggers and rebuild the index once at the
+    // end, which is several times faster than indexing row by row. A marker table records
+    // that a rebuild is owed, so an interrupted load is repaired the next time the store opens.
+    synchronized void beginBulkLoad() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS search_index_stale (since INTEGER)");
+            statement.execute("DROP TRIGGER IF EXISTS participants_fts_insert");
+            statement.execute("DROP TRIGGER IF EXISTS expenses_fts_insert");
+        }
+    }
+
+    synchronized void endBulkLoad() throws SQLException {
+        timed("reindex", ignored -> 0, () -> {
+            try (Statement statement = connection.createStatement()) {
+                createSearchIndex(statement);
+            }
+            return null;
+        });
+    }
+
+    long saveExpense(NewExpense expense) throws SQLException {
+        return saveExpenses(Collections.singletonList(expense))[0];
+    }
+
+    // Writes many expenses and all their participants in one transaction, so a failure
+    // leaves nothing half-written and the whole batch costs a single commit
+    synchronized long[] saveExpenses(List<NewExpense> expenses) throws SQLException {
+        long participants = 0;
+        for (NewExpense expense : expenses) {
+            participants += expense.names.size();
+        }
+        long rows = expenses.size() + participants;
+        return timed("insert", ids -> rows, () -> inTransaction(() -> insertExpenses(expenses)));
+    }
+
+    // Writes expenses taken from the journal and records the sequence of the last one in
+    // the same transaction, so after a crash each entry is replayed exactly once
+    synchronized long[] saveJournaled(List<NewExpense> expenses, long lastSequence) throws SQLException {
+        return timed("journal_apply", ids -> ids.length, () -> inTransaction(() -> {
+            long[] expenseIds = insertExpenses(expenses);
+            try (PreparedStatement pstmt = connection.prepareStatement(
+                    "UPDATE journal_state SET applied_sequence = ? WHERE id = 0")) {
+                pstmt.setLong(1, lastSequence);
+                pstmt.executeUpdate();
+            }
+            return expenseIds;
+        }));
+    }
+
+    synchronized long journalSequence() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT applied_sequence FROM journal_state WHERE id = 0")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private long[] insertExpenses(List<NewExpense> expenses) throws SQLException {
+        long[] expenseIds = new long[expenses.size()];
+        PreparedStatement insertParticipant = insertParticipantStatement();
+        LedgerChanges changes = new LedgerChanges();
+
+        for (int i = 0; i < expenses.size(); i++) {
+            NewExpense expense = expenses.get(i);
+            expenseIds[i] = insertExpense(expense);
+
+            for (int j = 0; j < expense.names.size(); j++) {
+                insertParticipant.setLong(1, expenseIds[i]);
+                insertParticipant.setString(2, expense.names.get(j));
+                insertParticipant.setDouble(3, expense.share(j));
+                insertParticipant.addBatch();
+            }
+            changes.addExpense(expense.date, expense.totalAmount, expense.paidBy, expense.names, expense.shares, 1);
+        }
+
+        insertParticipant.executeBatch();
+        applyChanges(changes);
+        return expenseIds;
+    }
+
+    private long insertExpense(NewExpense expense) throws SQLException {
+        if (insertExpenseStmt == null) {
+            insertExpenseStmt = connection.prepareStatement(
+                    "INSERT INTO expenses (description, total_amount, people_count, date, paid_by) VALUES (?, ?, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS);
+        }
+        insertExpenseStmt.setString(1, expense.description);
+        insertExpenseStmt.setDouble(2, expense.totalAmount);
+        insertExpenseStmt.setInt(3, expense.names.size());
+        insertExpenseStmt.setLong(4, expense.date.toEpochDay());
+        insertExpenseStmt.setString(5, expense.paidBy);
+
+        insertExpenseStmt.executeUpdate();
+
+        // Get the generated expense ID
+        try (ResultSet rs = insertExpenseStmt.getGeneratedKeys()) {
+            return rs.next() ? rs.getLong(1) : -1;
+        }
+    }
+
+    private PreparedStatement insertParticipantStatement() throws SQLException {
+        if (insertParticipantStmt == null) {
+            insertParticipantStmt = connection.prepareStatement(
+                    "INSERT INTO participants (expense_id, name, amount) VALUES (?, ?, ?)");
+        }
+        return insertParticipantStmt;
+    }
+
+    private static final String STORED_COLUMNS =
+            "SELECT e.id, e.description, e.date, e.total_amount, e.paid_by, p.id AS participant_id, p.name, p.amount " +
+            "FROM expenses e LEFT JOIN participants p ON p.expense_id = e.id ";
+
+    // Reads an expense and its participant rows, in row order, as currently stored; null
+    // if it does not exist
+    private StoredExpense loadStored(long expenseId) throws SQLException {
+        return timed("participant_lookup", stored -> stored == null ? 0 : stored.shares.size(), () -> queryStored(expenseId));
+    }
+
+    private StoredExpense queryStored(long expenseId) throws SQLException {
+        if (selectStoredStmt == null) {
+            selectStoredStmt = connection.prepareStatement(STORED_COLUMNS + "WHERE e.id = ? ORDER BY p.id");
+        }
+        selectStoredStmt.setLong(1, expenseId);
+        return readStored(selectStoredStmt).get(expenseId);
+    }
+
+    // The same for many expenses with one query, keyed by id; missing ids are left out
+    private Map<Long, StoredExpense> loadStored(long[] expenseIds) throws SQLException {
+        if (expenseIds.length == 0) {
+            return Collections.emptyMap();
+        }
+        StringBuilder sql = new StringBuilder(STORED_COLUMNS + "WHERE e.id IN (?");
+        for (int i = 1; i < expenseIds.length; i++) {
+            sql.append(",?");
+        }
+        sql.append(") ORDER BY e.id, p.id");
+        return timed("participant_lookup", stored -> stored.values().stream().mapToInt(e -> e.shares.size()).sum(), () -> {
+            try (PreparedStatement pstmt = connection.prepareStatement(sql.toString())) {
+                for (int i = 0; i < expenseIds.length; i++) {
+                    pstmt.setLong(i + 1, expenseIds[i]);
+                }
+                return readStored(pstmt);
+            }
+        });
+    }
+
+    // Folds rows ordered by expense, then participant row, into stored expenses
+    private static Map<Long, StoredExpense> readStored(PreparedStatement pstmt) throws SQLException {
+        Map<Long, StoredExpense> expenses = new LinkedHashMap<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                StoredExpense stored = expenses.get(rs.getLong("id"));
+                if (stored == null) {
+                    stored = new StoredExpense(rs.getString("description"), LocalDate.ofEpochDay(rs.getLong("date")),
+                                               rs.getDouble("total_amount"), rs.getString("paid_by"));
+                    expenses.put(rs.getLong("id"), stored);
+                }
+                String name = rs.getString("name");
+                if (name != null) {
+                    stored.shares.add(new StoredShare(rs.getLong("participant_id"), name, rs.getDouble("amount")));
+                }
+            }
+        }
+        return expenses;
+    }
+
+    // Undoes what a stored expense contributed to the balances and rollups, before it is
+    // changed or deleted. Shares are taken back as stored, not as they would be recomputed.
+    private static void removeShares(LedgerChanges changes, StoredExpense stored) {
+        int month = Rollups.monthOf(stored.date);
+        changes.addMonth(month, -1, -toCents(stored.totalAmount));
+        for (StoredShare share : stored.shares) {
+            changes.addShare(month, share.name, stored.paidBy, -1, -toCents(share.amount));
+        }
+    }
+
+    private void applyChanges(LedgerChanges changes) throws SQLException {
+        if (upsertBalanceStmt == null) {
+            upsertBalanceStmt = connection.prepareStatement(
+                    "INSERT INTO balances (name, net_cents) VALUES (?, ?) " +
+                    "ON CONFLICT(name) DO UPDATE SET net_cents = " + exactSum("net_cents"));
+            upsertMonthStmt = connection.prepareStatement(
+                    "INSERT INTO month_totals (month, expense_count, total_cents) VALUES (?, ?, ?) " +
+                    "ON CONFLICT(month) DO UPDATE SET expense_count = expense_count + excluded.expense_count, " +
+                    "total_cents = " + exactSum("total_cents"));
+            upsertPersonMonthStmt = connection.prepareStatement(
+                    "INSERT INTO person_month_totals (month, name, share_count, owed_cents, paid_cents) VALUES (?, ?, ?, ?, ?) " +
+                    "ON CONFLICT(month, name) DO UPDATE SET share_count = share_count + excluded.share_count, " +
+                    "owed_cents = " + exactSum("owed_cents") + ", paid_cents = " + exactSum("paid_cents"));
+        }
+
+        for (Map.Entry<String, Long> change : changes.balances.entrySet()) {
+            if (change.getValue() != 0) {
+                upsertBalanceStmt.setString(1, change.getKey());
+                upsertBalanceStmt.setLong(2, change.getValue());
+                upsertBalanceStmt.addBatch();
+            }
+        }
+        upsertBalanceStmt.executeBatch();
+
+        for (Map.Entry<Integer, long[]> change : changes.months.entrySet()) {
+            long[] delta = change.getValue();
+            if (delta[0] != 0 || delta[1] != 0) {
+                upsertMonthStmt.setInt(1, change.getKey());
+                upsertMonthStmt.setLong(2, delta[0]);
+                upsertMonthStmt.setLong(3, delta[1]);
+                upsertMonthStmt.addBatch();
+            }
+        }
+        upsertMonthStmt.executeBatch();
+
+        for (Map.Entry<Integer, Map<String, long[]>> month : changes.personMonths.entrySet()) {
+            for (Map.Entry<String, long[]> change : month.getValue().entrySet()) {
+                long[] delta = change.getValue();
+                if (delta[0] != 0 || delta[1] != 0 || delta[2] != 0) {
+                    upsertPersonMonthStmt.setInt(1, month.getKey());
+                    upsertPersonMonthStmt.setString(2, change.getKey());
+                    upsertPersonMonthStmt.setLong(3, delta[0]);
+                    upsertPersonMonthStmt.setLong(4, delta[1]);
+                    upsertPersonMonthStmt.setLong(5, delta[2]);
+                    upsertPersonMonthStmt.addBatch();
+                }
+            }
+        }
+        upsertPersonMonthStmt.executeBatch();
+    }
+
+    // SQLite turns an integer sum that overflows into a REAL; this makes it NULL instead, so
+    // the NOT NULL column fails the write rather than storing a rounded total
+    private static String exactSum(String column) {
+        String sum = column + " + excluded." + column;
+        return "CASE WHEN typeof(" + sum + ") = 'integer' THEN " + sum + " END";
+    }
+
+    // Rejects amounts that do not fit in a long rather than saturating at Long.MAX_VALUE
+    static long toCents(double amount) {
+        double cents = amount * 100;
+        if (Math.abs(cents) >= 0x1p63) {
+            throw new IllegalArgumentException("The amount is too large.");
+        }
+        return Math.round(cents);
+    }
+
+    // Net balance of everyone who is owed or owes money, in cents
+    Map<String, Long> loadBalances() throws SQLException {
+        return timed("balances", Map::size, () -> database.read(c -> {
+            Map<String, Long> balances = new HashMap<>();
+            try (Statement statement = c.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT name, net_cents FROM balances WHERE net_cents <> 0")) {
+                while (rs.next()) {
+                    balances.put(rs.getString(1), rs.getLong(2));
+                }
+            }
+            return balances;
+        }));
+    }
+
+    // Spend per month, newest month first
+    List<Rollups.MonthTotal> loadMonthTotals() throws SQLException {
+        String sql = "SELECT month, expense_count, total_cents FROM month_totals " +
+                     "WHERE expense_count <> 0 ORDER BY month DESC";
+        return timed("report", List::size, () -> database.read(c -> {
+            List<Rollups.MonthTotal> totals = new ArrayList<>();
+            try (Statement statement = c.createStatement();
+                 ResultSet rs = statement.executeQuery(sql)) {
+                while (rs.next()) {
+                    totals.add(new Rollups.MonthTotal(rs.getInt(1), rs.getInt(2), rs.getLong(3)));
+                }
+            }
+            return totals;
+        }));
+    }
+
+    // Each person's totals for one month (YYYYMM), or for every month when month is null,
+    // newest month first and then by name
+    List<Rollups.PersonMonthTotal> loadPersonMonthTotals(Integer month) throws SQLException {
+        String sql = "SELECT month, name, share_count, owed_cents, paid_cents FROM person_month_totals " +
+                     "WHERE " + (month != null ? "month = ? AND " : "") +
+                     "(share_count <> 0 OR paid_cents <> 0) ORDER BY month DESC, name";
+        return timed("report", List::size, () -> database.read(c -> {
+            List<Rollups.PersonMonthTotal> totals = new ArrayList<>();
+            try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+                if (month != null) {
+                    pstmt.setInt(1, month);
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        totals.add(new Rollups.PersonMonthTotal(rs.getInt(1), rs.getString(2), rs.getInt(3),
+                                                                rs.getLong(4), rs.getLong(5)));
+                    }
+                }
+            }
+            return totals;
+        }));
+    }
+
+    // Runs the work as one transaction on the writer connection, rolling back on failure.
+    // Callers hold this object's lock.
+    private <T> T inTransaction(SqlWork<T> work) throws SQLException {
+        connection.setAutoCommit(false);
+
+        try {
+            T result = work.run();
+            connection.commit();
+            return result;
+
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            if (insertParticipantStmt != null) {
+                insertParticipantStmt.clearBatch();
+            }
+            if (upsertBalanceStmt != null) {
+                upsertBalanceStmt.clearBatch();
+                upsertMonthStmt.clearBatch();
+                upsertPersonMonthStmt.clearBatch();
+            }
+            if (updateParticipantStmt != null) {
+                updateParticipantStmt.clearBatch();
+                deleteParticipantStmt.clearBatch();
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    // Loads expenses together with their participants in a single query. Rows come back
+    // sorted by expense, so the participants of one expense are folded into one record
+    // as the cursor moves forward instead of running a query per expense. The calling
+    // thread's interrupt flag is checked per row so a superseded search stops early.
+    List<ExpenseRecord> loadRecords(RecordFilter filter) throws SQLException {
+        return timed(filter == RecordFilter.ALL ? "load" : "filter", List::size, () -> queryRecords(filter));
+    }
+
+    private List<ExpenseRecord> queryRecords(RecordFilter filter) throws SQLException {
+        String sql = "SELECT e.id, e.date, e.description, e.total_amount, e.people_count, e.paid_by, p.name, p.amount " +
+                     "FROM expenses e LEFT JOIN participants p ON p.expense_id = e.id " +
+                     "WHERE " + filter.whereClause + " " +
+                     "ORDER BY e.date DESC, e.id DESC, p.id";
+
+        return database.read(c -> {
+            try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+                filter.bind(pstmt, 1);
+                return foldRecords(pstmt);
+            }
+        });
+    }
+
+    int countRecords(RecordFilter filter) throws SQLException {
+        String sql = "SELECT COUNT(*) FROM expenses e WHERE " + filter.whereClause;
+
+        return timed("count", count -> 1, () -> database.read(c -> {
+            try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+                filter.bind(pstmt, 1);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+        }));
+    }
+
+    // Keyset pagination: loads up to limit records that sort after the given key
+    // (newest first), or from the top when after is null. The window is picked from
+    // the (date, id) index before participants are joined in.
+    List<ExpenseRecord> loadPage(RecordFilter filter, PageKey after, int limit) throws SQLException {
+        String sql = "SELECT e.id, e.date, e.description, e.total_amount, e.people_count, e.paid_by, p.name, p.amount " +
+                     "FROM (SELECT * FROM expenses e WHERE " + filter.whereClause +
+                     (after != null ? " AND (e.date, e.id) < (?, ?)" : "") +
+                     " ORDER BY e.date DESC, e.id DESC LIMIT ?) e " +
+                     "LEFT JOIN participants p ON p.expense_id = e.id " +
+                     "ORDER BY e.date DESC, e.id DESC, p.id";
+
+        return timed(filter == RecordFilter.ALL ? "load_page" : "filter_page", List::size, () -> database.read(c -> {
+            try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+                int index = filter.bind(pstmt, 1);
+                if (after != null) {
+                    pstmt.setLong(index++, after.day);
+                    pstmt.setLong(index++, after.id);
+                }
+                pstmt.setInt(index, limit);
+                return foldRecords(pstmt);
+            }
+        }));
+    }
+
+    // Finds where each of the next pages starts without loading their rows: returns the
+    // key of the last row of each of the following pages, stopping early at the end
+    List<PageKey> findPageKeys(RecordFilter filter, PageKey after, int pageSize, int pages) throws SQLException {
+        String sql = "SELECT e.date, e.id FROM expenses e WHERE " + filter.whereClause +
+                     " AND (e.date, e.id) < (?, ?) ORDER BY e.date DESC, e.id DESC LIMIT 1 OFFSET ?";
+        // Sorts before every real key, so the first hop starts at the top
+        PageKey first = after != null ? after : new PageKey(Long.MAX_VALUE, Long.MAX_VALUE);
+
+        return timed("page_keys", List::size, () -> database.read(c -> {
+            List<PageKey> keys = new ArrayList<>();
+            PageKey key = first;
+
+            try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+                for (int i = 0; i < pages; i++) {
+                    int index = filter.bind(pstmt, 1);
+                    pstmt.setLong(index++, key.day);
+                    pstmt.setLong(index++, key.id);
+                    pstmt.setInt(index, pageSize - 1);
+
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        if (!rs.next()) {
+                            break;
+                        }
+                        key = new PageKey(rs.getLong(1), rs.getLong(2));
+                    }
+                    keys.add(key);
+                }
+            }
+
+            return keys;
+        }));
+    }
+
+    // Streams every expense in id order to the consumer from a single forward-only cursor,
+    // without holding more than the current expense in memory. Used for exports.
+    void streamRecords(Consumer<ExpenseRecord> consumer) throws SQLException {
+        String sql = "SELECT e.id, e.date, e.description, e.total_amount, e.people_count, e.paid_by, p.name, p.amount " +
+                     "FROM expenses e LEFT JOIN participants p ON p.expense_id = e.id " +
+                     "ORDER BY e.id, p.id";
+
+        timed("stream", count -> count, () -> database.read(c -> {
+            long[] count = {0};
+            try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+                foldRecords(pstmt, record -> {
+                    count[0]++;
+                    consumer.accept(record);
+                });
+                return count[0];
+            }
+        }));
+    }
+
+    private List<ExpenseRecord> foldRecords(PreparedStatement pstmt) throws SQLException {
+        List<ExpenseRecord> records = new ArrayList<>();
+        foldRecords(pstmt, records::add);
+        return records;
+    }
+
+    private void foldRecords(PreparedStatement pstmt, Consumer<ExpenseRecord> consumer) throws SQLException {
+        try (ResultSet rs = pstmt.executeQuery()) {
+            RecordFolder folder = new RecordFolder(consumer);
+            while (rs.next()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Query superseded");
+                }
+                folder.accept(rs);
+            }
+            folder.finish();
+        }
+    }
+
+    // Returns the expense with its participant names, or null if it no longer exists
+    ExpenseRecord findExpense(long expenseId) throws SQLException {
+        List<ExpenseRecord> records = timed("find", List::size, () -> queryRecords(new RecordFilter("e.id = ?", expenseId)));
+        return records.isEmpty() ? null : records.get(0);
+    }
+
+    // Loads the given expenses in id order; ids that no longer exist are skipped
+    List<ExpenseRecord> loadByIds(long[] ids) throws SQLException {
+        if (ids.length == 0) {
+            return Collections.emptyList();
+        }
+        StringBuilder sql = new StringBuilder(
+                "SELECT e.id, e.date, e.description, e.total_amount, e.people_count, e.paid_by, p.name, p.amount " +
+                "FROM expenses e LEFT JOIN participants p ON p.expense_id = e.id WHERE e.id IN (?");
+        for (int i = 1; i < ids.length; i++) {
+            sql.append(",?");
+        }
+        sql.append(") ORDER BY e.id, p.id");
+
+        return timed("load_ids", List::size, () -> database.read(c -> {
+            try (PreparedStatement pstmt = c.prepareStatement(sql.toString())) {
+                for (int i = 0; i < ids.length; i++) {
+                    pstmt.setLong(i + 1, ids[i]);
+                }
+                return foldRecords(pstmt);
+            }
+        }));
+    }
+
+    synchronized void deleteExpense(long expenseId) throws SQLException {
+        deleteExpenses(new long[] {expenseId});
+    }
+
+    // Deletes all the expenses in one transaction, skipping ids that no longer exist, and
+    // returns the expense and participant rows removed
+    synchronized int deleteExpenses(long[] expenseIds) throws SQLException {
+        return timed("delete", rows -> rows, () -> inTransaction(() -> {
+            LedgerChanges changes = new LedgerChanges();
+            int shares = 0;
+            try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM expenses WHERE id = ?")) {
+                // Everything being deleted is read in one query, not one per id
+                for (Map.Entry<Long, StoredExpense> entry : loadStored(expenseIds).entrySet()) {
+                    removeShares(changes, entry.getValue());
+                    shares += entry.getValue().shares.size();
+                    pstmt.setLong(1, entry.getKey());
+                    pstmt.addBatch();
+                }
+                // The cascade removes the participant rows along with each expense
+                int rows = sum(pstmt.executeBatch()) + shares;
+                applyChanges(changes);
+                return rows;
+            }
+        }));
+    }
+
+    // What a maintenance run did. Sizes are of the main database file after the WAL has
+    // been checkpointed into it; deleted rows only shrink it once it is vacuumed.
+    static class MaintenanceReport {
+        final int orphansRemoved;
+        final int emptyRowsRemoved;
+        final long bytesBefore;
+        final long bytesAfter;
+        // Unused pages still inside the file afterwards, which a vacuum would return
+        final long freeBytes;
+
+        MaintenanceReport(int orphansRemoved, int emptyRowsRemoved, long bytesBefore, long bytesAfter,
+                          long freeBytes) {
+            this.orphansRemoved = orphansRemoved;
+            this.emptyRowsRemoved = emptyRowsRemoved;
+            this.bytesBefore = bytesBefore;
+            this.bytesAfter = bytesAfter;
+            this.freeBytes = freeBytes;
+        }
+    }
+
+    // Removes participant rows whose expense is gone (left by deletes made while foreign
+    // keys were off) and derived rows that have dropped to zero, then optionally compacts
+    // the file and refreshes the query planner statistics. Balances and rollups only ever
+    // counted participants joined to an expense, so the purge does not change them.
+    synchronized MaintenanceReport maintain(boolean vacuum, boolean analyze) throws SQLException {
+        return timed("maintenance", report -> report.orphansRemoved + report.emptyRowsRemoved, () -> {
+            long before = databaseBytes();
+            int orphans, empty;
+            try (Statement statement = connection.createStatement()) {
+                // Counted first: the update count would include the search index triggers' writes
+                String orphaned = "FROM participants WHERE NOT EXISTS " +
+                        "(SELECT 1 FROM expenses e WHERE e.id = participants.expense_id)";
+                orphans = inTransaction(() -> {
+                    int count;
+                    try (ResultSet rs = statement.executeQuery("SELECT COUNT(*) " + orphaned)) {
+                        count = rs.next() ? rs.getInt(1) : 0;
+                    }
+                    if (count > 0) {
+                        statement.execute("DELETE " + orphaned);
+                    }
+                    return count;
+                });
+                empty = inTransaction(() ->
+                        statement.executeUpdate("DELETE FROM balances WHERE net_cents = 0") +
+                        statement.executeUpdate("DELETE FROM month_totals WHERE expense_count = 0 AND total_cents = 0") +
+                        statement.executeUpdate("DELETE FROM person_month_totals " +
+                                "WHERE share_count = 0 AND owed_cents = 0 AND paid_cents = 0"));
+            }
+            if (vacuum) {
+                // Merge the full-text index segments before the file is rewritten. SQLite
+                // will not VACUUM while a statement that ran on the connection is still open.
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("INSERT INTO participants_fts(participants_fts) VALUES ('optimize')");
+                    statement.execute("INSERT INTO expenses_fts(expenses_fts) VALUES ('optimize')");
+                }
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("VACUUM");
+                }
+            }
+            if (analyze) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("ANALYZE");
+                }
+            }
+            long after = databaseBytes();
+            return new MaintenanceReport(orphans, empty, before, after, pageBytes("pragma_freelist_count()"));
+        });
+    }
+
+    // Size of the main file after checkpointing the WAL into it
+    private long databaseBytes() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeQuery("PRAGMA wal_checkpoint(TRUNCATE)").close();
+        }
+        return pageBytes("pragma_page_count()");
+    }
+
+    // Bytes in the pages counted by a pragma table such as pragma_page_count()
+    private long pageBytes(String pages) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT p.*, s.page_size FROM " + pages + " p, pragma_page_size() s")) {
+            return rs.next() ? rs.getLong(1) * rs.getLong(2) : 0;
+        }
+    }
+
+    // Writes only what the edit changed and returns the number of expense and participant
+    // rows written. People who stay on the expense keep their row, which is rewritten only
+    // if their share changed. Leftover removed rows are reused for added people before any
+    // row is inserted or deleted. All writes go through reused statements, batched.
+    synchronized int updateExpense(long expenseId, NewExpense expense) throws SQLException {
+        String description = expense.description;
+        double totalAmount = expense.totalAmount;
+        LocalDate date = expense.date;
+        String paidBy = expense.paidBy;
+        List<String> names = expense.names;
+        return timed("edit", rows -> rows, () -> inTransaction(() -> {
+            StoredExpense stored = loadStored(expenseId);
+            if (stored == null) {
+                return 0;
+            }
+            int rowsWritten = 0;
+
+            if (!description.equals(stored.description) || totalAmount != stored.totalAmount ||
+                    !date.equals(stored.date) || !Objects.equals(paidBy, stored.paidBy) ||
+                    names.size() != stored.shares.size()) {
+                if (updateExpenseStmt == null) {
+                    updateExpenseStmt = connection.prepareStatement(
+                            "UPDATE expenses SET description = ?, total_amount = ?, people_count = ?, date = ?, paid_by = ? WHERE id = ?");
+                }
+                updateExpenseStmt.setString(1, description);
+                updateExpenseStmt.setDouble(2, totalAmount);
+                updateExpenseStmt.setInt(3, names.size());
+                updateExpenseStmt.setLong(4, date.toEpochDay());
+                updateExpenseStmt.setString(5, paidBy);
+                updateExpenseStmt.setLong(6, expenseId);
+                rowsWritten += updateExpenseStmt.executeUpdate();
+            }
+
+            // Match each new name to a stored row with the same name
+            Map<String, ArrayDeque<StoredShare>> storedByName = new HashMap<>();
+            for (StoredShare share : stored.shares) {
+                storedByName.computeIfAbsent(share.name, k -> new ArrayDeque<>()).add(share);
+            }
+            Set<Long> kept = new HashSet<>();
+            // Positions in names of the people without a stored row
+            List<Integer> added = new ArrayList<>();
+            if (updateParticipantStmt == null) {
+                updateParticipantStmt = connection.prepareStatement(
+                        "UPDATE participants SET name = ?, amount = ? WHERE id = ?");
+                deleteParticipantStmt = connection.prepareStatement(
+                        "DELETE FROM participants WHERE id = ?");
+            }
+            for (int i = 0; i < names.size(); i++) {
+                String name = names.get(i);
+                ArrayDeque<StoredShare> matches = storedByName.get(name);
+                StoredShare match = matches != null ? matches.poll() : null;
+                if (match == null) {
+                    added.add(i);
+                    continue;
+                }
+                kept.add(match.id);
+                if (match.amount != expense.share(i)) {
+                    updateParticipantStmt.setString(1, name);
+                    updateParticipantStmt.setDouble(2, expense.share(i));
+                    updateParticipantStmt.setLong(3, match.id);
+                    updateParticipantStmt.addBatch();
+                }
+            }
+
+            // Rename removed rows to added people, then insert or delete what is left over
+            int reused = 0;
+            PreparedStatement insertParticipant = insertParticipantStatement();
+            for (StoredShare share : stored.shares) {
+                if (kept.contains(share.id)) {
+                    continue;
+                }
+                if (reused < added.size()) {
+                    int index = added.get(reused++);
+                    updateParticipantStmt.setString(1, names.get(index));
+                    updateParticipantStmt.setDouble(2, expense.share(index));
+                    updateParticipantStmt.setLong(3, share.id);
+                    updateParticipantStmt.addBatch();
+                } else {
+                    deleteParticipantStmt.setLong(1, share.id);
+                    deleteParticipantStmt.addBatch();
+                }
+            }
+            for (int index : added.subList(reused, added.size())) {
+                insertParticipant.setLong(1, expenseId);
+                insertParticipant.setString(2, names.get(index));
+                insertParticipant.setDouble(3, expense.share(index));
+                insertParticipant.addBatch();
+            }
+
+            rowsWritten += sum(updateParticipantStmt.executeBatch());
+            rowsWritten += sum(deleteParticipantStmt.executeBatch());
+            rowsWritten += sum(insertParticipant.executeBatch());
+
+            // Shares that did not change cancel out and write nothing
+            LedgerChanges changes = new LedgerChanges();
+            removeShares(changes, stored);
+            changes.addExpense(date, totalAmount, paidBy, names, expense.shares, 1);
+            applyChanges(changes);
+            return rowsWritten;
+        }));
+    }
+
+    private static int sum(int[] counts) {
+        int total = 0;
+        for (int count : counts) {
+            total += Math.max(count, 0);
+        }
+        return total;
+    }
+
+    synchronized void close() throws SQLException {
+        if (insertExpenseStmt != null) {
+            insertExpenseStmt.close();
+        }
+        if (insertParticipantStmt != null) {
+            insertParticipantStmt.close();
+        }
+        if (upsertBalanceStmt != null) {
+            upsertBalanceStmt.close();
+            upsertMonthStmt.close();
+            upsertPersonMonthStmt.close();
+        }
+        for (PreparedStatement statement : new PreparedStatement[] {
+                selectStoredStmt, updateExpenseStmt, updateParticipantStmt, deleteParticipantStmt}) {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+        metrics.stop();
+        database.close();
+    }
+
+    // An expense as stored, read inside a write transaction
+    private static class StoredExpense {
+        final String description;
+        final LocalDate date;
+        final double totalAmount;
+        final String paidBy;
+        final List<StoredShare> shares = new ArrayList<>();
+
+        StoredExpense(String description, LocalDate date, double totalAmount, String paidBy) {
+            this.description = description;
+            this.date = date;
+            this.totalAmount = totalAmount;
+            this.paidBy = paidBy;
+        }
+    }
+
+    private static class StoredShare {
+        final long id;
+        final String name;
+        final double amount;
+
+        StoredShare(long id, String name, double amount) {
+            this.id = id;
+            this.name = name;
+            this.amount = amount;
+        }
+    }
+
+    private interface SqlWork<T> {
+        T run() throws SQLException;
+    }
+
+    // Sort position of an expense in the records view, used as a keyset pagination cursor
+    static class PageKey {
+        final long day;
+        final long id;
+
+        PageKey(long day, long id) {
+            this.day = day;
+            this.id = id;
+        }
+
+        static PageKey of(ExpenseRecord record) {
+            return new PageKey(record.date.toEpochDay(), record.id);
+        }
+    }
+
+    // Folds joined (expense, participant) rows into one record per expense
+    private static class RecordFolder {
+        private final Consumer<ExpenseRecord> out;
+        private long id = -1;
+        private LocalDate date;
+        private String description, paidBy;
+        private double totalAmount;
+        private int peopleCount;
+        private List<String> names;
+        private long[] shares = new long[16];
+
+        RecordFolder(Consumer<ExpenseRecord> out) {
+            this.out = out;
+        }
+
+        void accept(ResultSet rs) throws SQLException {
+            long expenseId = rs.getLong("id");
+
+            if (names == null || expenseId != id) {
+                finish();
+                id = expenseId;
+                date = LocalDate.ofEpochDay(rs.getLong("date"));
+                description = rs.getString("description");
+                paidBy = rs.getString("paid_by");
+                totalAmount = rs.getDouble("total_amount");
+                peopleCount = rs.getInt("people_count");
+                names = new ArrayList<>();
+            }
+
+            String name = rs.getString("name");
+            if (name != null) {
+                if (names.size() == shares.length) {
+                    shares = Arrays.copyOf(shares, shares.length * 2);
+                }
+                shares[names.size()] = toCents(rs.getDouble("amount"));
+                names.add(name);
+            }
+        }
+
+        void finish() {
+            if (names != null) {
+                out.accept(new ExpenseRecord(id, date, description, paidBy, totalAmount, peopleCount, names,
+                                             Arrays.copyOf(shares, names.size())));
+                names = null;
+            }
+        }
+    }
+}
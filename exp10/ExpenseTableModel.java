@@ -0,0 +1,263 @@
+import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+// Table model for the records dialog that only knows the row count up front and loads
+// rows a page at a time as the table asks for them. Pages are fetched with keyset
+// pagination on (date, id) and kept in a small LRU cache; rows that are not loaded yet
+// render blank until their page arrives. Instead of a filter the model can be given the
+// ordered ids of a search result, in which case each page is loaded by id.
+class ExpenseTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    static final int PAGE_SIZE = 200;
+    private static final int CACHED_PAGES = 50;
+
+    private static final String[] COLUMNS = {"ID", "Date", "Description", "Paid By", "Total Amount", "People", "Names", "Amount Per Person"};
+    private static final Class<?>[] COLUMN_CLASSES = {Long.class, LocalDate.class, String.class, String.class, Double.class, Integer.class, List.class, Double.class};
+
+    private final AsyncExpenseStore store;
+    private final Consumer<Throwable> onError;
+
+    private RecordFilter filter = RecordFilter.ALL;
+    // Ids of the rows when showing a search result, otherwise null
+    private long[] ids;
+    private int rowCount;
+    // Bumped on every filter change so results of older queries are ignored
+    private int generation;
+    private final List<CompletableFuture<?>> inFlight = new ArrayList<>();
+    private final Set<Integer> loadingPages = new HashSet<>();
+    // Key of the last row before each page; page 0 starts at the top
+    private final Map<Integer, ExpenseStore.PageKey> pageStarts = new HashMap<>();
+    private final Map<Integer, List<ExpenseRecord>> pages = new LinkedHashMap<Integer, List<ExpenseRecord>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<ExpenseRecord>> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    };
+
+    ExpenseTableModel(AsyncExpenseStore store, Consumer<Throwable> onError) {
+        this.store = store;
+        this.onError = onError;
+    }
+
+    // Replaces the filter, cancelling loads for the previous one, and recounts the rows
+    void setFilter(RecordFilter newFilter) {
+        reset();
+        filter = newFilter;
+        ids = null;
+
+        int requested = generation;
+        RecordFilter counted = newFilter;
+        track(store.read(s -> s.countRecords(counted)), count -> {
+            if (requested != generation) {
+                return;
+            }
+            rowCount = count;
+            fireTableDataChanged();
+        });
+    }
+
+    // Shows exactly these expenses, in this order
+    void setIds(long[] newIds) {
+        reset();
+        ids = newIds;
+        rowCount = newIds.length;
+        fireTableDataChanged();
+    }
+
+    boolean isShowingIds() {
+        return ids != null;
+    }
+
+    // Re-runs the current filter, or reloads the rows of the current ids, e.g. after a
+    // record was added, edited or deleted
+    void refresh() {
+        if (ids != null) {
+            setIds(ids);
+        } else {
+            setFilter(filter);
+        }
+    }
+
+    private void reset() {
+        generation++;
+        for (CompletableFuture<?> future : inFlight) {
+            future.cancel(true);
+        }
+        inFlight.clear();
+        loadingPages.clear();
+        pageStarts.clear();
+        pages.clear();
+    }
+
+    ExpenseRecord getRecord(int row) {
+        List<ExpenseRecord> page = pages.get(row / PAGE_SIZE);
+        if (page == null) {
+            requestPage(row / PAGE_SIZE);
+            return null;
+        }
+        int offset = row % PAGE_SIZE;
+        return offset < page.size() ? page.get(offset) : null;
+    }
+
+    private void requestPage(int pageIndex) {
+        if (!loadingPages.add(pageIndex)) {
+            return;
+        }
+        if (ids != null) {
+            requestPageByIds(pageIndex);
+            return;
+        }
+
+        // Walk forward from the closest page whose start is already known
+        int known = pageIndex;
+        while (known > 0 && !pageStarts.containsKey(known)) {
+            known--;
+        }
+        int from = known;
+        int hops = pageIndex - from;
+        ExpenseStore.PageKey start = pageStarts.get(from);
+        RecordFilter pageFilter = filter;
+        int requested = generation;
+
+        track(store.read(s -> {
+            List<ExpenseStore.PageKey> keys = hops > 0
+                    ? s.findPageKeys(pageFilter, start, PAGE_SIZE, hops)
+                    : Collections.emptyList();
+            List<ExpenseRecord> records = keys.size() == hops
+                    ? s.loadPage(pageFilter, hops > 0 ? keys.get(hops - 1) : start, PAGE_SIZE)
+                    : Collections.emptyList();
+            return new PageResult(keys, records);
+        }), result -> {
+            if (requested != generation) {
+                return;
+            }
+            loadingPages.remove(pageIndex);
+            for (int i = 0; i < result.keys.size(); i++) {
+                pageStarts.put(from + i + 1, result.keys.get(i));
+            }
+            pages.put(pageIndex, result.records);
+            if (!result.records.isEmpty()) {
+                pageStarts.put(pageIndex + 1, ExpenseStore.PageKey.of(result.records.get(result.records.size() - 1)));
+            }
+
+            int first = pageIndex * PAGE_SIZE;
+            int last = Math.min(rowCount, first + PAGE_SIZE) - 1;
+            if (last >= first) {
+                fireTableRowsUpdated(first, last);
+            }
+        });
+    }
+
+    private void requestPageByIds(int pageIndex) {
+        int first = pageIndex * PAGE_SIZE;
+        int last = Math.min(ids.length, first + PAGE_SIZE) - 1;
+        long[] pageIds = Arrays.copyOfRange(ids, first, last + 1);
+        int requested = generation;
+
+        track(store.read(s -> s.loadByIds(pageIds)), records -> {
+            if (requested != generation) {
+                return;
+            }
+            loadingPages.remove(pageIndex);
+
+            // Put the records back in search order; deleted ones leave a blank row
+            Map<Long, ExpenseRecord> byId = new HashMap<>();
+            for (ExpenseRecord record : records) {
+                byId.put(record.id, record);
+            }
+            List<ExpenseRecord> page = new ArrayList<>(pageIds.length);
+            for (long id : pageIds) {
+                page.add(byId.get(id));
+            }
+            pages.put(pageIndex, page);
+
+            if (last >= first) {
+                fireTableRowsUpdated(first, last);
+            }
+        });
+    }
+
+    private <T> void track(CompletableFuture<T> future, Consumer<T> onLoaded) {
+        inFlight.add(future);
+        AsyncExpenseStore.onEdt(future, value -> {
+            inFlight.remove(future);
+            onLoaded.accept(value);
+        }, error -> {
+            inFlight.remove(future);
+            onError.accept(error);
+        });
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return COLUMN_CLASSES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        ExpenseRecord record = getRecord(row);
+        if (record == null) {
+            return null;
+        }
+        switch (column) {
+            case 0: return record.id;
+            case 1: return record.date;
+            case 2: return record.description;
+            case 3: return record.paidBy;
+            case 4: return record.totalAmount;
+            case 5: return record.peopleCount;
+            case 6: return record.names;
+            default: return record.amountPerPerson;
+        }
+    }
+
+    // Formats currency and name lists only for the cells actually painted
+    static void installRenderers(JTable table) {
+        table.setDefaultRenderer(Double.class, new DefaultTableCellRenderer() {
+            @Override
+            protected void setValue(Object value) {
+                setHorizontalAlignment(RIGHT);
+                // NaN is the per-person amount of an uneven split
+                setText(value == null ? "" : Double.isNaN((Double) value) ? "Varies" : String.format("$%.2f", (Double) value));
+            }
+        });
+        table.setDefaultRenderer(List.class, new DefaultTableCellRenderer() {
+            @Override
+            @SuppressWarnings("unchecked")
+            protected void setValue(Object value) {
+                setText(value == null ? "" : String.join(", ", (List<String>) value));
+            }
+        });
+    }
+
+    private static class PageResult {
+        final List<ExpenseStore.PageKey> keys;
+        final List<ExpenseRecord> records;
+
+        PageResult(List<ExpenseStore.PageKey> keys, List<ExpenseRecord> records) {
+            this.keys = keys;
+            this.records = records;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// What one write does to the tables derived from the ledger: net balances, spend per
+// month, and each person's share and payments per month. Deltas are summed in memory
+// while the write runs and applied with one batched upsert per table at the end. The
+// sums use exact arithmetic, so an overflow fails the write instead of corrupting them.
+class LedgerChanges {
+    // Net cents per person
+    final Map<String, Long> balances = new HashMap<>();
+    // Per month (YYYYMM): {expense count, total cents}
+    final Map<Integer, long[]> months = new HashMap<>();
+    // Per month, per person: {share count, owed cents, paid cents}
+    final Map<Integer, Map<String, long[]>> personMonths = new HashMap<>();
+
+    // Adds (sign 1) or takes away (sign -1) everything an expense contributes
+    void addExpense(LocalDate date, double totalAmount, String paidBy, List<String> names,
+                    long[] shares, int sign) {
+        int month = Rollups.monthOf(date);
+        addMonth(month, sign, Math.multiplyExact(ExpenseStore.toCents(totalAmount), (long) sign));
+        for (int i = 0; i < names.size(); i++) {
+            addShare(month, names.get(i), paidBy, sign, Math.multiplyExact(shares[i], (long) sign));
+        }
+    }
+
+    void addMonth(int month, long expenses, long cents) {
+        long[] totals = months.computeIfAbsent(month, k -> new long[2]);
+        totals[0] = Math.addExact(totals[0], expenses);
+        totals[1] = Math.addExact(totals[1], cents);
+    }
+
+    // One participant's share. They owe it to the payer, who is credited with the sum of
+    // the rounded shares rather than the total, so all balances always add up to zero.
+    // Without a payer the share is counted but moves no money.
+    void addShare(int month, String name, String paidBy, long count, long cents) {
+        long[] totals = personMonth(month, name);
+        totals[0] = Math.addExact(totals[0], count);
+        totals[1] = Math.addExact(totals[1], cents);
+        if (paidBy != null) {
+            long[] payer = personMonth(month, paidBy);
+            payer[2] = Math.addExact(payer[2], cents);
+            balances.merge(name, Math.negateExact(cents), Math::addExact);
+            balances.merge(paidBy, cents, Math::addExact);
+        }
+    }
+
+    private long[] personMonth(int month, String name) {
+        return personMonths.computeIfAbsent(month, k -> new HashMap<>()).computeIfAbsent(name, k -> new long[3]);
+    }
+}
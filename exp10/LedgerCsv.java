@@ -0,0 +1,333 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Headless CSV import and export of the expense ledger. Both directions stream: export
+// writes from a single forward-only cursor, and import reads one line at a time and
+// commits every batchSize expenses, so neither holds the whole ledger in memory.
+//
+// One line per participant:
+//   expense_id,date,description,total_amount,paid_by,name,amount
+// Consecutive lines with the same expense_id form one expense. Imported expenses get new
+// ids and keep the amounts in the file when those add up to the total; otherwise they are
+// split evenly. Files written before paid_by was added have six fields; their first
+// participant is taken as the payer. Every expense is checked like one entered in the
+// window, and the first that fails stops the import with its line number.
+//
+// The reporting rollups export as one line per month (month,expenses,total) or per
+// person and month (month,name,shares,owed,paid,net).
+class LedgerCsv {
+    static final String HEADER = "expense_id,date,description,total_amount,paid_by,name,amount";
+    static final String MONTH_HEADER = "month,expenses,total";
+    static final String PERSON_MONTH_HEADER = "month,name,shares,owed,paid,net";
+    static final int DEFAULT_BATCH_SIZE = 5000;
+
+    private final ExpenseStore store;
+    private final PrintStream progress;
+
+    LedgerCsv(ExpenseStore store, PrintStream progress) {
+        this.store = store;
+        this.progress = progress;
+    }
+
+    // Usage: --export FILE | --import FILE [--batch-size N] | --export-months FILE |
+    // --export-person-months FILE; FILE may be - for stdout/stdin
+    static void run(String[] args) throws Exception {
+        String mode = args[0];
+        if (args.length < 2 || !Arrays.asList("--export", "--import", "--export-months", "--export-person-months").contains(mode)) {
+            System.err.println("Usage: ExpenseSplitter [--group NAME] --export FILE | --import FILE [--batch-size N] | " +
+                    "--export-months FILE | --export-person-months FILE | --serve [PORT] | --maintain [--vacuum] [--analyze]");
+            System.exit(2);
+        }
+        String file = args[1];
+        int batchSize = DEFAULT_BATCH_SIZE;
+        if (args.length >= 4 && "--batch-size".equals(args[2])) {
+            batchSize = Integer.parseInt(args[3]);
+        }
+
+        ExpenseStore store = ExpenseStore.open(ExpenseSplitter.databaseUrl());
+        try {
+            LedgerCsv csv = new LedgerCsv(store, System.err);
+            if (mode.startsWith("--export")) {
+                try (Writer out = "-".equals(file)
+                        ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)
+                        : new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+                    if ("--export-months".equals(mode)) {
+                        writeMonthTotals(store.loadMonthTotals(), out);
+                    } else if ("--export-person-months".equals(mode)) {
+                        writePersonMonthTotals(store.loadPersonMonthTotals(null), out);
+                    } else {
+                        csv.exportTo(out);
+                    }
+                }
+            } else {
+                try (BufferedReader in = "-".equals(file)
+                        ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                        : new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+                    csv.importFrom(in, batchSize);
+                }
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    long exportTo(Writer out) throws SQLException, IOException {
+        long start = System.nanoTime();
+        long[] rows = {0};
+        out.write(HEADER);
+        out.write('\n');
+
+        try {
+            store.streamRecords(record -> {
+                try {
+                    String prefix = record.id + "," + record.date + "," + quote(record.description) + "," +
+                            decimal(record.totalAmount) + "," + quote(record.paidBy != null ? record.paidBy : "") + ",";
+                    for (int i = 0; i < record.names.size(); i++) {
+                        out.write(prefix);
+                        out.write(quote(record.names.get(i)));
+                        out.write(',');
+                        out.write(decimal(record.share(i)));
+                        out.write('\n');
+                        rows[0]++;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        out.flush();
+        progress.printf("Exported %d rows in %.1fs%n", rows[0], (System.nanoTime() - start) / 1e9);
+        return rows[0];
+    }
+
+    long importFrom(BufferedReader reader, int batchSize) throws SQLException, IOException {
+        long start = System.nanoTime();
+        long rows = 0, expenses = 0;
+        // Counts physical lines for error messages; a quoted field may span several
+        LineNumberReader in = new LineNumberReader(reader);
+        int line = 0;
+        int expenseLine = 0;
+        List<NewExpense> batch = new ArrayList<>(batchSize);
+
+        String currentKey = null;
+        LocalDate date = null;
+        String description = null;
+        String paidBy = null;
+        double totalAmount = 0;
+        List<String> names = null;
+        long[] shares = new long[16];
+
+        store.beginBulkLoad();
+        try {
+            List<String> fields = new ArrayList<>(7);
+            String text = in.readLine();
+            if (text != null && text.startsWith("expense_id,")) {
+                text = in.readLine();
+            }
+
+            for (; text != null; text = in.readLine()) {
+                if (text.isEmpty()) {
+                    continue;
+                }
+                rows++;
+                line = in.getLineNumber();
+                readRecord(text, in, fields);
+                if (fields.size() == 6) {
+                    fields.add(4, "");
+                } else if (fields.size() != 7) {
+                    throw new IOException("Line " + line + ": expected 7 fields but found " + fields.size());
+                }
+
+                if (!fields.get(0).equals(currentKey)) {
+                    if (names != null) {
+                        batch.add(expense(expenseLine, description, totalAmount, date, paidBy, names, shares));
+                        expenses++;
+                        if (batch.size() >= batchSize) {
+                            flush(batch, expenses, rows, start);
+                        }
+                    }
+                    currentKey = fields.get(0);
+                    expenseLine = line;
+                    try {
+                        date = LocalDate.parse(fields.get(1));
+                    } catch (DateTimeParseException e) {
+                        throw new IOException("Line " + line + ": invalid date " + fields.get(1) + "; use YYYY-MM-DD");
+                    }
+                    description = fields.get(2);
+                    try {
+                        totalAmount = Double.parseDouble(fields.get(3));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Line " + line + ": invalid total_amount " + fields.get(3));
+                    }
+                    paidBy = fields.get(4).isEmpty() ? fields.get(5) : fields.get(4);
+                    names = new ArrayList<>();
+                }
+                if (names.size() == shares.length) {
+                    shares = Arrays.copyOf(shares, shares.length * 2);
+                }
+                shares[names.size()] = parseCents(fields.get(6));
+                names.add(fields.get(5));
+            }
+
+            if (names != null) {
+                batch.add(expense(expenseLine, description, totalAmount, date, paidBy, names, shares));
+                expenses++;
+            }
+            flush(batch, expenses, rows, start);
+
+        } finally {
+            progress.println("Rebuilding search index...");
+            store.endBulkLoad();
+        }
+
+        progress.printf("Imported %d expenses (%d rows) in %.1fs%n", expenses, rows, (System.nanoTime() - start) / 1e9);
+        return expenses;
+    }
+
+    // Checks the expense the same way the Split form does, keeping the shares read from
+    // the file if they add up to the total and splitting evenly otherwise
+    private static NewExpense expense(int line, String description, double totalAmount, LocalDate date, String paidBy,
+                                      List<String> names, long[] shares) throws IOException {
+        try {
+            SplitEngine.Rule rule = SplitEngine.Rule.EQUAL;
+            if (sharesAddUp(totalAmount, names.size(), shares)) {
+                double[] amounts = new double[names.size()];
+                for (int i = 0; i < amounts.length; i++) {
+                    amounts[i] = shares[i] / 100.0;
+                }
+                rule = new SplitEngine.Rule(SplitEngine.Mode.EXACT, amounts);
+            }
+            return ExpenseService.validate(description, totalAmount, date, paidBy, names, rule);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Line " + line + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean sharesAddUp(double totalAmount, int count, long[] shares) {
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += shares[i];
+            // Both checks also catch a sum that overflowed
+            if (shares[i] < 0 || sum < 0) {
+                return false;
+            }
+        }
+        return sum == ExpenseStore.toCents(totalAmount);
+    }
+
+    // Negative when the field is not a number or too large
+    private static long parseCents(String field) {
+        try {
+            double amount = Double.parseDouble(field);
+            return amount >= 0 ? ExpenseStore.toCents(amount) : -1;
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    static void writeMonthTotals(List<Rollups.MonthTotal> totals, Writer out) throws IOException {
+        out.write(MONTH_HEADER);
+        out.write('\n');
+        for (Rollups.MonthTotal total : totals) {
+            out.write(Rollups.formatMonth(total.month) + "," + total.expenseCount + "," + cents(total.totalCents) + "\n");
+        }
+        out.flush();
+    }
+
+    static void writePersonMonthTotals(List<Rollups.PersonMonthTotal> totals, Writer out) throws IOException {
+        out.write(PERSON_MONTH_HEADER);
+        out.write('\n');
+        for (Rollups.PersonMonthTotal total : totals) {
+            out.write(Rollups.formatMonth(total.month) + "," + quote(total.name) + "," + total.shareCount + "," +
+                      cents(total.owedCents) + "," + cents(total.paidCents) + "," + cents(total.paidCents - total.owedCents) + "\n");
+        }
+        out.flush();
+    }
+
+    private void flush(List<NewExpense> batch, long expenses, long rows, long start) throws SQLException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        store.saveExpenses(batch);
+        batch.clear();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        progress.printf("  %d expenses, %d rows, %.0f rows/s%n", expenses, rows, rows / Math.max(seconds, 1e-9));
+    }
+
+    // Splits one CSV record into fields, reading further lines when a quoted field spans
+    // a line break
+    private static void readRecord(String line, BufferedReader in, List<String> fields) throws IOException {
+        fields.clear();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+
+        while (true) {
+            if (i == line.length()) {
+                if (!quoted) {
+                    break;
+                }
+                String next = in.readLine();
+                if (next == null) {
+                    throw new IOException("Unterminated quoted field");
+                }
+                field.append('\n');
+                line = next;
+                i = 0;
+                continue;
+            }
+
+            char c = line.charAt(i++);
+            if (quoted) {
+                if (c == '"') {
+                    if (i < line.length() && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+
+        fields.add(field.toString());
+    }
+
+    private static String quote(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return '"' + value.replace("\"", "\"\"") + '"';
+            }
+        }
+        return value;
+    }
+
+    private static String decimal(double value) {
+        return BigDecimal.valueOf(value).toPlainString();
+    }
+
+    private static String cents(long cents) {
+        return BigDecimal.valueOf(cents, 2).toPlainString();
+    }
+}
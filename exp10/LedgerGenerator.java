@@ -0,0 +1,79 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Produces synthetic expenses for benchmarks and load tests. Output is fully determined
+// by the seed. Names are drawn either uniformly or from a Zipf distribution, where a few
+// people appear in most expenses, as in a real household or trip ledger.
+class LedgerGenerator {
+    private final Random random;
+    private final int participantsPerExpense;
+    private final int distinctNames;
+    private final boolean zipf;
+    // Cumulative Zipf weights, searched with a binary search per draw
+    private final double[] cumulative;
+    private final LocalDate firstDay;
+    private final int daySpan;
+
+    LedgerGenerator(long seed, int participantsPerExpense, int distinctNames, boolean zipf, int daySpan) {
+        this.random = new Random(seed);
+        this.participantsPerExpense = participantsPerExpense;
+        this.distinctNames = distinctNames;
+        this.zipf = zipf;
+        this.daySpan = daySpan;
+        this.firstDay = LocalDate.of(2020, 1, 1);
+
+        cumulative = new double[distinctNames];
+        double total = 0;
+        for (int i = 0; i < distinctNames; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < distinctNames; i++) {
+            cumulative[i] /= total;
+        }
+    }
+
+    String nextName() {
+        int index;
+        if (zipf) {
+            index = java.util.Arrays.binarySearch(cumulative, random.nextDouble());
+            index = index >= 0 ? index : Math.min(-index - 1, distinctNames - 1);
+        } else {
+            index = random.nextInt(distinctNames);
+        }
+        return "Person" + index;
+    }
+
+    NewExpense nextExpense() {
+        List<String> names = new ArrayList<>(participantsPerExpense);
+        for (int i = 0; i < participantsPerExpense; i++) {
+            names.add(nextName());
+        }
+        double totalAmount = (100 + random.nextInt(100_000)) / 100.0;
+        LocalDate date = firstDay.plusDays(random.nextInt(daySpan));
+        return new NewExpense("Expense " + random.nextInt(1_000_000), totalAmount, date, names.get(0), names);
+    }
+
+    List<NewExpense> nextExpenses(int count) {
+        List<NewExpense> expenses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            expenses.add(nextExpense());
+        }
+        return expenses;
+    }
+
+    // Writes count generated expenses in batches and returns the number written
+    long seed(ExpenseStore store, int count, int batchSize) throws java.sql.SQLException {
+        store.beginBulkLoad();
+        try {
+            for (int written = 0; written < count; written += batchSize) {
+                store.saveExpenses(nextExpenses(Math.min(batchSize, count - written)));
+            }
+        } finally {
+            store.endBulkLoad();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,50 @@
+// Headless housekeeping for the ledger database:
+//
+//   --maintain [--vacuum] [--analyze]
+//
+// Always purges participant rows left behind by deleted expenses and derived rows that
+// have dropped to zero. --vacuum rewrites the file to return free pages to the file
+// system; --analyze refreshes the statistics the query planner uses. Prints what was
+// removed and how much space was reclaimed.
+class LedgerMaintenance {
+    private LedgerMaintenance() {
+    }
+
+    static void run(String[] args) throws Exception {
+        boolean vacuum = false, analyze = false;
+        for (int i = 1; i < args.length; i++) {
+            if ("--vacuum".equals(args[i])) {
+                vacuum = true;
+            } else if ("--analyze".equals(args[i])) {
+                analyze = true;
+            } else {
+                System.err.println("Usage: ExpenseSplitter [--group NAME] --maintain [--vacuum] [--analyze]");
+                System.exit(2);
+            }
+        }
+
+        ExpenseStore store = ExpenseStore.open(ExpenseSplitter.databaseUrl());
+        try {
+            long start = System.nanoTime();
+            ExpenseStore.MaintenanceReport report = store.maintain(vacuum, analyze);
+            System.err.printf("Removed %d orphaned participant rows and %d empty totals%n",
+                    report.orphansRemoved, report.emptyRowsRemoved);
+            long reclaimed = report.bytesBefore - report.bytesAfter;
+            System.err.printf("Database %s -> %s, %s %s; %s free inside the file%s%s in %.1fs%n",
+                    size(report.bytesBefore), size(report.bytesAfter), reclaimed >= 0 ? "reclaimed" : "grew by",
+                    size(Math.abs(reclaimed)), size(report.freeBytes),
+                    vacuum || report.freeBytes == 0 ? "" : " (run with --vacuum to return it)",
+                    analyze ? "; statistics refreshed" : "",
+                    (System.nanoTime() - start) / 1e9);
+        } finally {
+            store.close();
+        }
+    }
+
+    private static String size(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+}
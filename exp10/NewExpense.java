@@ -0,0 +1,38 @@
+import java.time.LocalDate;
+import java.util.List;
+
+// An expense to be written: paid by one person and split between the named people.
+// shares holds each person's part in cents, in the order of names, and adds up to the total.
+class NewExpense {
+    final String description;
+    final double totalAmount;
+    final LocalDate date;
+    final String paidBy;
+    final List<String> names;
+    final long[] shares;
+    
+    NewExpense(String description, double totalAmount, LocalDate date, String paidBy, List<String> names, long[] shares) {
+        this.description = description;
+        this.totalAmount = totalAmount;
+        this.date = date;
+        this.paidBy = paidBy;
+        this.names = names;
+        this.shares = shares;
+    }
+    
+    // Split evenly, with any leftover cents going to the first people listed
+    NewExpense(String description, double totalAmount, LocalDate date, String paidBy, List<String> names) {
+        this(description, totalAmount, date, paidBy, names,
+             names.isEmpty() ? new long[0] : SplitEngine.equal(ExpenseStore.toCents(totalAmount), names.size()));
+    }
+    
+    // An expense dated today
+    NewExpense(String description, double totalAmount, String paidBy, List<String> names) {
+        this(description, totalAmount, LocalDate.now(), paidBy, names);
+    }
+    
+    // One person's share in currency units
+    double share(int index) {
+        return shares[index] / 100.0;
+    }
+}
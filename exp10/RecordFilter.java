@@ -0,0 +1,67 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+// A WHERE condition on the expenses table (aliased "e") plus its bind parameters
+class RecordFilter {
+    static final RecordFilter ALL = new RecordFilter("1 = 1");
+    
+    // The trigram index only answers substrings of at least three characters; shorter
+    // searches fall back to a scan
+    private static final int MIN_INDEXED_LENGTH = 3;
+    
+    final String whereClause;
+    final Object[] params;
+    
+    RecordFilter(String whereClause, Object... params) {
+        this.whereClause = whereClause;
+        this.params = params;
+    }
+    
+    // Expenses with a participant whose name contains the text
+    static RecordFilter nameContains(String text) {
+        if (text.length() < MIN_INDEXED_LENGTH) {
+            return new RecordFilter("e.id IN (SELECT expense_id FROM participants WHERE name LIKE ?)", "%" + text + "%");
+        }
+        return new RecordFilter("e.id IN (SELECT expense_id FROM participants WHERE id IN " +
+                "(SELECT rowid FROM participants_fts WHERE participants_fts MATCH ?))", phrase(text));
+    }
+    
+    // Expenses whose description contains the text
+    static RecordFilter descriptionContains(String text) {
+        if (text.length() < MIN_INDEXED_LENGTH) {
+            return new RecordFilter("e.description LIKE ?", "%" + text + "%");
+        }
+        return new RecordFilter("e.id IN (SELECT rowid FROM expenses_fts WHERE expenses_fts MATCH ?)", phrase(text));
+    }
+    
+    // Quotes the text as an FTS5 phrase so operators in it are matched literally
+    private static String phrase(String text) {
+        return "\"" + text.replace("\"", "\"\"") + "\"";
+    }
+    
+    // Expenses dated within the range, answered from the date index
+    static RecordFilter dateBetween(DateRange range) {
+        return new RecordFilter("e.date BETWEEN ? AND ?", range.from.toEpochDay(), range.to.toEpochDay());
+    }
+    
+    // Expenses matching both this filter and the other
+    RecordFilter and(RecordFilter other) {
+        if (this == ALL) {
+            return other;
+        }
+        if (other == ALL) {
+            return this;
+        }
+        Object[] both = java.util.Arrays.copyOf(params, params.length + other.params.length);
+        System.arraycopy(other.params, 0, both, params.length, other.params.length);
+        return new RecordFilter("(" + whereClause + ") AND (" + other.whereClause + ")", both);
+    }
+    
+    // Binds the parameters starting at the given index and returns the next free index
+    int bind(PreparedStatement pstmt, int index) throws SQLException {
+        for (Object param : params) {
+            pstmt.setObject(index++, param);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,43 @@
+import java.time.LocalDate;
+
+// Rows of the reporting rollups. Months are stored as YYYYMM integers so they sort and
+// group without date arithmetic in SQL.
+class Rollups {
+    // Everything spent in one month
+    static class MonthTotal {
+        final int month;
+        final int expenseCount;
+        final long totalCents;
+
+        MonthTotal(int month, int expenseCount, long totalCents) {
+            this.month = month;
+            this.expenseCount = expenseCount;
+            this.totalCents = totalCents;
+        }
+    }
+
+    // One person's shares of the month's expenses and what they paid for
+    static class PersonMonthTotal {
+        final int month;
+        final String name;
+        final int shareCount;
+        final long owedCents;
+        final long paidCents;
+
+        PersonMonthTotal(int month, String name, int shareCount, long owedCents, long paidCents) {
+            this.month = month;
+            this.name = name;
+            this.shareCount = shareCount;
+            this.owedCents = owedCents;
+            this.paidCents = paidCents;
+        }
+    }
+
+    static int monthOf(LocalDate date) {
+        return date.getYear() * 100 + date.getMonthValue();
+    }
+
+    static String formatMonth(int month) {
+        return String.format("%04d-%02d", month / 100, month % 100);
+    }
+}
@@ -0,0 +1,59 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+// Versioned schema changes. PRAGMA user_version records how many migrations a database
+// has had; opening it runs the ones after that, in order, and bumps the version after
+// each. A new database runs them all. Migrations are only ever appended to the list,
+// never edited or reordered once shipped.
+//
+// Databases from before versioning report version 0 and so run every step; each step
+// checks what is already there, and must also be safe to repeat because a crash can
+// land between a step and its version bump.
+class SchemaMigrations {
+    interface Step {
+        void apply(Statement statement) throws SQLException;
+    }
+
+    static class Migration {
+        final String description;
+        final Step step;
+
+        Migration(String description, Step step) {
+            this.description = description;
+            this.step = step;
+        }
+    }
+
+    private SchemaMigrations() {
+    }
+
+    static int version(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // Brings the database up to migrations.size(); returns how many steps ran
+    static int migrate(Connection connection, List<Migration> migrations) throws SQLException {
+        int version = version(connection);
+        if (version > migrations.size()) {
+            throw new SQLException("The database is at schema version " + version +
+                    " but this program only knows " + migrations.size() + "; it was written by a newer version.");
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (int i = version; i < migrations.size(); i++) {
+                Migration migration = migrations.get(i);
+                migration.step.apply(statement);
+                statement.execute("PRAGMA user_version = " + (i + 1));
+                if (version > 0) {
+                    System.out.println("Migrated schema to version " + (i + 1) + ": " + migration.description + ".");
+                }
+            }
+        }
+        return migrations.size() - version;
+    }
+}
@@ -0,0 +1,226 @@
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+// In-memory substring index over participant names and expense descriptions, for
+// search-as-you-type in the records dialog. Every expense occupies a slot holding its
+// lower-cased text; each field maps every trigram (three consecutive characters) to the
+// slots containing it. A query of three or more characters only checks the slots of its
+// rarest trigram, then confirms each with a substring test; shorter queries scan all
+// slots. Results come back as expense ids, newest first like the table.
+//
+// Edits and deletes retire the old slot and, for edits, append a new one; retired slots
+// stay in the posting lists and are skipped. Once more than half the slots are retired
+// the live ones are renumbered and the posting lists rewritten without the rest, so a
+// long session of edits costs no more than a fresh index. All methods are synchronized:
+// updates arrive as writes complete, searches run on the search thread.
+class SearchIndex {
+    static final String NAME = "name";
+    static final String DESCRIPTION = "description";
+
+    // Low bits of a sort key that hold the expense id; ids are assumed below 2^40
+    private static final int ID_BITS = 40;
+    // Queries check for cancellation every this many candidate slots
+    private static final int CHECK_INTERVAL = 4096;
+    // Separates the names of one expense so a match cannot span two of them
+    private static final char NAME_SEPARATOR = '\u0000';
+    // Fewest retired slots worth compacting away
+    private static final int MIN_COMPACT = 1024;
+
+    private static class Postings {
+        int[] slots = new int[4];
+        int size;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+    }
+
+    private long[] ids = new long[1024];
+    private long[] days = new long[1024];
+    private String[] names = new String[1024];
+    private String[] descriptions = new String[1024];
+    private final BitSet live = new BitSet();
+    private int slotCount;
+
+    private final Map<Long, Integer> slotById = new HashMap<>();
+    private final Map<Long, Postings> nameTrigrams = new HashMap<>();
+    private final Map<Long, Postings> descriptionTrigrams = new HashMap<>();
+
+    // Adds or replaces the expense
+    synchronized void put(ExpenseRecord record) {
+        remove(record.id);
+
+        int slot = slotCount++;
+        if (slot == ids.length) {
+            int capacity = slot * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            days = Arrays.copyOf(days, capacity);
+            names = Arrays.copyOf(names, capacity);
+            descriptions = Arrays.copyOf(descriptions, capacity);
+        }
+
+        StringBuilder joined = new StringBuilder();
+        for (String name : record.names) {
+            if (joined.length() > 0) {
+                joined.append(NAME_SEPARATOR);
+            }
+            joined.append(name.toLowerCase(Locale.ROOT));
+        }
+        ids[slot] = record.id;
+        days[slot] = record.date.toEpochDay();
+        names[slot] = joined.toString();
+        descriptions[slot] = record.description.toLowerCase(Locale.ROOT);
+        live.set(slot);
+        slotById.put(record.id, slot);
+
+        addTrigrams(nameTrigrams, names[slot], slot);
+        addTrigrams(descriptionTrigrams, descriptions[slot], slot);
+    }
+
+    synchronized void remove(long expenseId) {
+        Integer slot = slotById.remove(expenseId);
+        if (slot != null) {
+            live.clear(slot);
+            names[slot] = null;
+            descriptions[slot] = null;
+            int retired = slotCount - slotById.size();
+            if (retired >= MIN_COMPACT && retired * 2 > slotCount) {
+                compact();
+            }
+        }
+    }
+
+    // Moves the live slots down over the retired ones, keeping their order, and drops the
+    // retired slots from the posting lists; no text is split into trigrams again
+    private void compact() {
+        int[] moved = new int[slotCount];
+        int count = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (live.get(slot)) {
+                ids[count] = ids[slot];
+                days[count] = days[slot];
+                names[count] = names[slot];
+                descriptions[count] = descriptions[slot];
+                moved[slot] = count++;
+            } else {
+                moved[slot] = -1;
+            }
+        }
+        Arrays.fill(names, count, slotCount, null);
+        Arrays.fill(descriptions, count, slotCount, null);
+        live.clear();
+        live.set(0, count);
+        slotCount = count;
+        for (Map.Entry<Long, Integer> entry : slotById.entrySet()) {
+            entry.setValue(moved[entry.getValue()]);
+        }
+        compactPostings(nameTrigrams, moved);
+        compactPostings(descriptionTrigrams, moved);
+    }
+
+    private static void compactPostings(Map<Long, Postings> index, int[] moved) {
+        Iterator<Postings> it = index.values().iterator();
+        while (it.hasNext()) {
+            Postings postings = it.next();
+            int size = 0;
+            for (int i = 0; i < postings.size; i++) {
+                int slot = moved[postings.slots[i]];
+                if (slot >= 0) {
+                    postings.slots[size++] = slot;
+                }
+            }
+            if (size == 0) {
+                it.remove();
+            } else {
+                postings.size = size;
+            }
+        }
+    }
+
+    synchronized int size() {
+        return slotById.size();
+    }
+
+    // Ids of the expenses whose field contains the text, ignoring case, newest first.
+    // Throws CancellationException if the calling thread is interrupted.
+    synchronized long[] search(String field, String text) {
+        String query = text.toLowerCase(Locale.ROOT);
+        boolean byName = NAME.equals(field);
+        String[] texts = byName ? names : descriptions;
+
+        int[] candidates = null;
+        int candidateCount = slotCount;
+        if (query.length() >= 3) {
+            Map<Long, Postings> trigrams = byName ? nameTrigrams : descriptionTrigrams;
+            Postings rarest = null;
+            for (int i = 0; i + 3 <= query.length(); i++) {
+                Postings postings = trigrams.get(trigram(query, i));
+                if (postings == null) {
+                    return new long[0];
+                }
+                if (rarest == null || postings.size < rarest.size) {
+                    rarest = postings;
+                }
+            }
+            candidates = rarest.slots;
+            candidateCount = rarest.size;
+        }
+
+        long[] keys = new long[Math.min(candidateCount, slotById.size())];
+        int matches = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            if (i % CHECK_INTERVAL == 0 && Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Search superseded");
+            }
+            int slot = candidates != null ? candidates[i] : i;
+            if (live.get(slot) && texts[slot].contains(query)) {
+                if (matches == keys.length) {
+                    keys = Arrays.copyOf(keys, matches * 2 + 1);
+                }
+                keys[matches++] = (days[slot] << ID_BITS) | ids[slot];
+            }
+        }
+
+        // Sort by (day, id) and read back to front for newest first
+        Arrays.sort(keys, 0, matches);
+        long[] result = new long[matches];
+        for (int i = 0; i < matches; i++) {
+            result[i] = keys[matches - 1 - i] & ((1L << ID_BITS) - 1);
+        }
+        return result;
+    }
+
+    private static void addTrigrams(Map<Long, Postings> index, String text, int slot) {
+        if (text.length() > 64) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                long key = trigram(text, i);
+                if (seen.add(key)) {
+                    index.computeIfAbsent(key, k -> new Postings()).add(slot);
+                }
+            }
+            return;
+        }
+        // A short text has few trigrams, so a linear duplicate check beats a set
+        long[] seen = new long[Math.max(0, text.length() - 2)];
+        int seenCount = 0;
+        outer:
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            long key = trigram(text, i);
+            for (int j = 0; j < seenCount; j++) {
+                if (seen[j] == key) {
+                    continue outer;
+                }
+            }
+            seen[seenCount++] = key;
+            index.computeIfAbsent(key, k -> new Postings()).add(slot);
+        }
+    }
+
+    private static long trigram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+}
@@ -0,0 +1,212 @@
+import java.util.*;
+
+// Turns net balances (positive: is owed money, negative: owes money, in cents) into a
+// short list of transfers that settles everyone. Debts that exactly cancel a credit are
+// paired first. The fewest transfers for the rest is one fewer than the number of people
+// in each group whose balances sum to zero, maximised over the ways of grouping them.
+// Finding that is NP-hard, so it is only done exactly, by a search over subsets, when at
+// most EXACT_LIMIT people are left. Larger ledgers are settled greedily, largest debtor
+// against largest creditor, which needs at most one transfer fewer than the number of
+// people and runs in O(n log n), so thousands of participants are cheap.
+class Settlement {
+    // Most people left after pairing for whom the fewest transfers are searched for
+    static final int EXACT_LIMIT = 16;
+    // Low bits of a packed sort key that hold the person's index
+    private static final int INDEX_BITS = 21;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    static class Transfer {
+        final String from;
+        final String to;
+        final long cents;
+
+        Transfer(String from, String to, long cents) {
+            this.from = from;
+            this.to = to;
+            this.cents = cents;
+        }
+    }
+
+    static List<Transfer> settle(Map<String, Long> balances) {
+        int n = balances.size();
+        String[] debtorNames = new String[n], creditorNames = new String[n];
+        long[] debts = new long[n], credits = new long[n];
+        int debtorCount = 0, creditorCount = 0;
+
+        for (Map.Entry<String, Long> entry : balances.entrySet()) {
+            long net = entry.getValue();
+            if (net < 0) {
+                debtorNames[debtorCount] = entry.getKey();
+                debts[debtorCount++] = -net;
+            } else if (net > 0) {
+                creditorNames[creditorCount] = entry.getKey();
+                credits[creditorCount++] = net;
+            }
+        }
+
+        List<Transfer> transfers = new ArrayList<>();
+
+        // A debt that equals some credit can be settled with one transfer that clears both
+        Map<Long, ArrayDeque<Integer>> creditorsByAmount = new HashMap<>();
+        for (int c = 0; c < creditorCount; c++) {
+            creditorsByAmount.computeIfAbsent(credits[c], k -> new ArrayDeque<>()).add(c);
+        }
+        for (int d = 0; d < debtorCount; d++) {
+            ArrayDeque<Integer> matches = creditorsByAmount.get(debts[d]);
+            if (matches != null && !matches.isEmpty()) {
+                int c = matches.poll();
+                transfers.add(new Transfer(debtorNames[d], creditorNames[c], debts[d]));
+                debts[d] = 0;
+                credits[c] = 0;
+            }
+        }
+
+        int left = 0;
+        for (int d = 0; d < debtorCount; d++) {
+            left += debts[d] > 0 ? 1 : 0;
+        }
+        for (int c = 0; c < creditorCount; c++) {
+            left += credits[c] > 0 ? 1 : 0;
+        }
+        if (left > EXACT_LIMIT) {
+            settleGreedily(debtorNames, debts, debtorCount, creditorNames, credits, creditorCount, transfers);
+            return transfers;
+        }
+
+        // Few enough left to split them into the most zero-sum groups and settle each alone
+        String[] names = new String[left];
+        long[] amounts = new long[left];
+        int k = 0;
+        for (int d = 0; d < debtorCount; d++) {
+            if (debts[d] > 0) {
+                names[k] = debtorNames[d];
+                amounts[k++] = -debts[d];
+            }
+        }
+        for (int c = 0; c < creditorCount; c++) {
+            if (credits[c] > 0) {
+                names[k] = creditorNames[c];
+                amounts[k++] = credits[c];
+            }
+        }
+        for (int[] group : zeroSumGroups(amounts)) {
+            String[] groupDebtorNames = new String[group.length], groupCreditorNames = new String[group.length];
+            long[] groupDebts = new long[group.length], groupCredits = new long[group.length];
+            int groupDebtors = 0, groupCreditors = 0;
+            for (int person : group) {
+                if (amounts[person] < 0) {
+                    groupDebtorNames[groupDebtors] = names[person];
+                    groupDebts[groupDebtors++] = -amounts[person];
+                } else {
+                    groupCreditorNames[groupCreditors] = names[person];
+                    groupCredits[groupCreditors++] = amounts[person];
+                }
+            }
+            settleGreedily(groupDebtorNames, groupDebts, groupDebtors, groupCreditorNames, groupCredits, groupCreditors,
+                           transfers);
+        }
+        return transfers;
+    }
+
+    // Settles largest first, walking both sides in sorted order
+    private static void settleGreedily(String[] debtorNames, long[] debts, int debtorCount,
+                                       String[] creditorNames, long[] credits, int creditorCount,
+                                       List<Transfer> transfers) {
+        int[] debtors = sortedByAmountDescending(debts, debtorCount);
+        int[] creditors = sortedByAmountDescending(credits, creditorCount);
+        int d = 0, c = 0;
+        while (d < debtors.length && c < creditors.length) {
+            int debtor = debtors[d], creditor = creditors[c];
+            long amount = Math.min(debts[debtor], credits[creditor]);
+            transfers.add(new Transfer(debtorNames[debtor], creditorNames[creditor], amount));
+            debts[debtor] -= amount;
+            credits[creditor] -= amount;
+            if (debts[debtor] == 0) {
+                d++;
+            }
+            if (credits[creditor] == 0) {
+                c++;
+            }
+        }
+    }
+
+    // Splits the people into as many groups as possible whose amounts sum to zero. A group
+    // of k people settles with k - 1 transfers, so this gives the fewest overall.
+    // groups[mask] is the most zero-sum groups the people in mask can be split into.
+    private static List<int[]> zeroSumGroups(long[] amounts) {
+        int full = (1 << amounts.length) - 1;
+        long[] sums = new long[full + 1];
+        int[] groups = new int[full + 1];
+        for (int mask = 1; mask <= full; mask++) {
+            sums[mask] = sums[mask & (mask - 1)] + amounts[Integer.numberOfTrailingZeros(mask)];
+            int best = 0;
+            for (int rest = mask; rest != 0; rest &= rest - 1) {
+                best = Math.max(best, groups[mask ^ Integer.lowestOneBit(rest)]);
+            }
+            groups[mask] = best + (sums[mask] == 0 ? 1 : 0);
+        }
+
+        // Take people away one at a time without losing a group; whenever those still left
+        // sum to zero, the ones taken since the last time form a group
+        List<int[]> result = new ArrayList<>();
+        int[] group = new int[amounts.length];
+        int size = 0;
+        int mask = full;
+        while (mask != 0) {
+            int target = groups[mask] - (sums[mask] == 0 ? 1 : 0);
+            int bit = Integer.lowestOneBit(mask);
+            for (int rest = mask; rest != 0; rest &= rest - 1) {
+                if (groups[mask ^ Integer.lowestOneBit(rest)] == target) {
+                    bit = Integer.lowestOneBit(rest);
+                    break;
+                }
+            }
+            mask ^= bit;
+            group[size++] = Integer.numberOfTrailingZeros(bit);
+            if (sums[mask] == 0) {
+                result.add(Arrays.copyOf(group, size));
+                size = 0;
+            }
+        }
+        return result;
+    }
+
+    // Indices of the non-zero amounts, largest amount first
+    private static int[] sortedByAmountDescending(long[] amounts, int count) {
+        int size = 0;
+        long max = 0;
+        for (int i = 0; i < count; i++) {
+            if (amounts[i] > 0) {
+                size++;
+                max = Math.max(max, amounts[i]);
+            }
+        }
+
+        int[] order = new int[size];
+        if (count <= INDEX_MASK && max <= Long.MAX_VALUE >> INDEX_BITS) {
+            // Pack amount and index into one long so a primitive sort orders both
+            long[] packed = new long[size];
+            for (int i = 0, j = 0; i < count; i++) {
+                if (amounts[i] > 0) {
+                    packed[j++] = (amounts[i] << INDEX_BITS) | i;
+                }
+            }
+            Arrays.sort(packed);
+            for (int i = 0; i < size; i++) {
+                order[i] = (int) (packed[size - 1 - i] & INDEX_MASK);
+            }
+        } else {
+            Integer[] boxed = new Integer[size];
+            for (int i = 0, j = 0; i < count; i++) {
+                if (amounts[i] > 0) {
+                    boxed[j++] = i;
+                }
+            }
+            Arrays.sort(boxed, (x, y) -> Long.compare(amounts[y], amounts[x]));
+            for (int i = 0; i < size; i++) {
+                order[i] = boxed[i];
+            }
+        }
+        return order;
+    }
+}
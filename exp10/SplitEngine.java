@@ -0,0 +1,174 @@
+import java.util.Arrays;
+
+// Splits an amount between people in whole cents. Every split returns one share per
+// person, in order, and the shares always add up to exactly the total. Cents that do not
+// divide evenly go one each to the people whose exact share has the largest fractional
+// part, earlier people first on a tie, so the same input always gives the same split.
+// Everything works on primitive arrays, so groups of tens of thousands split without
+// boxing.
+class SplitEngine {
+    enum Mode {
+        EQUAL("Equally"),
+        SHARES("By shares"),
+        PERCENT("By percentage"),
+        EXACT("Exact amounts");
+
+        private final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+
+        // Accepts the constant name in any case: "equal", "shares", "percent" or "exact"
+        static Mode parse(String text) {
+            for (Mode mode : values()) {
+                if (mode.name().equalsIgnoreCase(text)) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown split: " + text + ". Use equal, shares, percent or exact.");
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    // How to split: evenly, or by one value per person. Shares are relative weights,
+    // percentages must add up to 100 and exact amounts to the total.
+    static class Rule {
+        static final Rule EQUAL = new Rule(Mode.EQUAL, null);
+
+        final Mode mode;
+        final double[] values;
+
+        Rule(Mode mode, double[] values) {
+            this.mode = mode;
+            this.values = values;
+        }
+
+        long[] apply(long totalCents, int count) {
+            if (mode == Mode.EQUAL) {
+                return equal(totalCents, count);
+            }
+            if (values == null || values.length != count) {
+                throw new IllegalArgumentException("Please enter a value for every person.");
+            }
+            switch (mode) {
+                case SHARES:
+                    return byShares(totalCents, values);
+                case PERCENT:
+                    return byPercent(totalCents, values);
+                default:
+                    return exact(totalCents, values);
+            }
+        }
+    }
+
+    private SplitEngine() {
+    }
+
+    static long[] equal(long totalCents, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Please enter a positive number of people.");
+        }
+        long[] shares = new long[count];
+        long base = totalCents / count;
+        long extra = totalCents % count;
+        for (int i = 0; i < count; i++) {
+            shares[i] = i < extra ? base + 1 : base;
+        }
+        return shares;
+    }
+
+    // Shares in proportion to the weights; zero weights get nothing
+    static long[] weighted(long totalCents, long[] weights) {
+        int count = weights.length;
+        try {
+            long weightSum = 0;
+            for (long weight : weights) {
+                if (weight < 0) {
+                    throw new IllegalArgumentException("Shares cannot be negative.");
+                }
+                weightSum = Math.addExact(weightSum, weight);
+            }
+            if (weightSum == 0) {
+                throw new IllegalArgumentException("At least one person needs a share.");
+            }
+
+            long[] shares = new long[count];
+            // Sort keys: largest remainder first, then position, packed into one long
+            long[] order = new long[count];
+            long given = 0;
+            for (int i = 0; i < count; i++) {
+                long product = Math.multiplyExact(totalCents, weights[i]);
+                shares[i] = product / weightSum;
+                given += shares[i];
+                long remainder = product % weightSum;
+                order[i] = Math.addExact(Math.multiplyExact(weightSum - 1 - remainder, (long) count), i);
+            }
+
+            long left = totalCents - given;
+            if (left > 0) {
+                Arrays.sort(order);
+                for (int k = 0; k < left; k++) {
+                    shares[(int) (order[k] % count)]++;
+                }
+            }
+            return shares;
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("The amount or shares are too large to split.");
+        }
+    }
+
+    // Relative shares such as 2, 1, 1 or 1.5, 1; read to two decimal places
+    static long[] byShares(long totalCents, double[] shares) {
+        long[] weights = new long[shares.length];
+        for (int i = 0; i < shares.length; i++) {
+            weights[i] = hundredths(shares[i], "Shares");
+        }
+        return weighted(totalCents, weights);
+    }
+
+    // Percentages to two decimal places, which must add up to 100
+    static long[] byPercent(long totalCents, double[] percents) {
+        long[] basisPoints = new long[percents.length];
+        long sum = 0;
+        for (int i = 0; i < percents.length; i++) {
+            basisPoints[i] = hundredths(percents[i], "Percentages");
+            sum += basisPoints[i];
+        }
+        if (sum != 10_000) {
+            throw new IllegalArgumentException(String.format(
+                    "The percentages must add up to 100 (they add up to %s).", decimal(sum)));
+        }
+        return weighted(totalCents, basisPoints);
+    }
+
+    // Amounts in currency units, which must add up to the total
+    static long[] exact(long totalCents, double[] amounts) {
+        long[] shares = new long[amounts.length];
+        long sum = 0;
+        for (int i = 0; i < amounts.length; i++) {
+            shares[i] = hundredths(amounts[i], "Amounts");
+            sum += shares[i];
+        }
+        if (sum != totalCents) {
+            throw new IllegalArgumentException(String.format(
+                    "The amounts must add up to the total of $%s (they add up to $%s).", decimal(totalCents), decimal(sum)));
+        }
+        return shares;
+    }
+
+    private static long hundredths(double value, String what) {
+        if (!(value >= 0) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException(what + " must be zero or more.");
+        }
+        return Math.round(value * 100);
+    }
+
+    private static String decimal(long hundredths) {
+        return String.format("%d.%02d", hundredths / 100, hundredths % 100);
+    }
+}